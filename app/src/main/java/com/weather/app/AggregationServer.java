@@ -2,30 +2,69 @@ package com.weather.app;
 
 import com.google.gson.*;
 import java.io.*;
+import java.lang.invoke.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Supplier;
 
 public class AggregationServer {
 
     private static final int DEFAULT_PORT = 4567;
-    private static final String DATA_FILE = "weatherData.json";
+    private static final String MODE_POOL = "pool";
+    private static final String MODE_NIO = "nio";
+    private static final String MODE_VIRTUAL = "virtual";
+    private static final String DATA_FILE = "weatherData.snap";
+    private static final String LEGACY_DATA_FILE = "weatherData.json"; // Imported when no binary snapshot exists yet
     private static final String TEMP_FILE = "weatherData.tmp";
+    private static final String LOG_FILE = "weatherData.wal";
+    private static final String CURSOR_FILE = "weatherData.replica"; // Primary clock a replica has applied up to
+    private static final long SNAPSHOT_INTERVAL_SECONDS = 30;
     private static final long EXPIRATION_TIME_MILLIS = 30_000; // 30 seconds
-    private static final int MAX_ENTRIES = 20; // Maximum 20 entries
+    private static final long EXPIRY_SWEEP_MILLIS = 1000; // Sweeps only touch due entries, so they can run often
+    // Capacity and eviction policy (fifo, lru, lfu or ttl) can be set with -Daggregation.maxEntries etc.
+    private static final int MAX_ENTRIES = Integer.getInteger("aggregation.maxEntries", 20);
+    private static final long MAX_BYTES = Long.getLong("aggregation.maxBytes", Long.MAX_VALUE);
+    private static final String EVICTION_POLICY = System.getProperty("aggregation.eviction", "fifo");
+    private static final long HISTORY_MILLIS = TimeUnit.HOURS.toMillis(Long.getLong("aggregation.historyHours", 24));
+    private static final int HISTORY_SAMPLES = Integer.getInteger("aggregation.historySamples", 100_000); // Per station
+    private static final int HISTORY_STATIONS = Integer.getInteger("aggregation.historyStations", 10_000);
+    private static final int IDLE_TIMEOUT_MILLIS = 15_000; // Keep-alive connections are closed after 15 idle seconds
+    private static final int MAX_SUBSCRIBERS = Integer.getInteger("aggregation.maxSubscribers", 1000);
+    private static final int STREAM_BUFFER = Integer.getInteger("aggregation.streamBuffer", 256); // Stations per subscriber
+    private static final long STREAM_KEEPALIVE_MILLIS = 10_000;
+    private static final int POOL_THREADS = 10;
+    // Long-polls and streams the fixed pool lets wait at once, so most of its threads stay free for other requests
+    private static final int POOL_WAITERS = POOL_THREADS / 2;
+    private static final long MAX_WAIT_MILLIS = 60_000; // Longest a long-polling GET is held
+    private static final int MAX_TOMBSTONES = Integer.getInteger("aggregation.maxTombstones", 10_000); // Removals kept for ?since=
+    // Replication: a primary listens for replicas on aggregation.replicationPort; a server started with
+    // -Daggregation.replicaOf=host:port follows that primary and only serves reads
+    private static final int REPLICATION_PORT = Integer.getInteger("aggregation.replicationPort", 0);
+    private static final String REPLICA_OF = System.getProperty("aggregation.replicaOf");
     private static final LamportClock lamportClock = new LamportClock();
-    private static final Object fileLock = new Object(); // For synchronizing file writes
-
-    // Data structures to store weather data and timestamps of content servers
-    public static final Map<String, JsonObject> weatherData = new LinkedHashMap<>();
-    private static final Map<String, Long> serverTimestamps = new ConcurrentHashMap<>();
+    private static WriteAheadLog writeAheadLog;
+    private static ReplicationServer replicationServer;
+    private static Replica replica;
+
+    // Data structures to store weather data and track when each content server was last heard from
+    public static final StationStore weatherData = new StationStore(MAX_ENTRIES, MAX_BYTES, EvictionPolicy.named(EVICTION_POLICY));
+    private static final FeedCache feedCache = new FeedCache(weatherData);
+    private static final StationIndex stationIndex = new StationIndex();
+    private static final ExpiryQueue expiryQueue = new ExpiryQueue(EXPIRATION_TIME_MILLIS);
+    private static final StationHistory stationHistory = new StationHistory(HISTORY_MILLIS, HISTORY_SAMPLES, HISTORY_STATIONS);
+    private static final StationAggregates stationAggregates = new StationAggregates();
+    private static final Subscriptions subscriptions = new Subscriptions(weatherData, MAX_SUBSCRIBERS, STREAM_BUFFER);
+    private static final ChangeIndex changeIndex = new ChangeIndex(lamportClock, MAX_TOMBSTONES);
     private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
 
     public static void main(String[] args) throws IOException {
 
         int port = DEFAULT_PORT;
+        String mode = MODE_POOL;
 
         if (args.length > 0) {
             try {
@@ -34,66 +73,136 @@ public class AggregationServer {
                 System.err.println("Invalid port number. Using default port: " + DEFAULT_PORT);
             }
         }
+        if (args.length > 1) {
+            mode = args[1].toLowerCase();
+        }
 
-        // Load weather data from persistent storage
-        loadFromFile();
-
-        // Periodically clean up expired entries
-        scheduler.scheduleAtFixedRate(AggregationServer::cleanExpiredData, 10, 10, TimeUnit.SECONDS);
+        initialize();
 
         // Start the server
+        if (MODE_NIO.equals(mode)) {
+            ExecutorService workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            Waits waits = parked(workers);
+            new NioServer("Aggregation Server", port, request -> handleRequest(request, waits), AggregationServer::errorResponse,
+                    workers, IDLE_TIMEOUT_MILLIS).run();
+            return;
+        }
+
         try (ServerSocket serverSocket = new ServerSocket(port)) {
             System.out.println("Aggregation Server is running on port " + port);
 
-            ExecutorService threadPool = Executors.newFixedThreadPool(10); // Use thread pool
+            boolean virtual = MODE_VIRTUAL.equals(mode);
+            ExecutorService threadPool = virtual
+                    ? newVirtualThreadExecutor() // One virtual thread per connection
+                    : Executors.newFixedThreadPool(POOL_THREADS); // Use thread pool
+            Semaphore waiters = virtual ? null : new Semaphore(POOL_WAITERS); // Waiting is cheap on a virtual thread
 
             while (true) {
                 Socket clientSocket = serverSocket.accept();
-                threadPool.execute(() -> handleClient(clientSocket));
+                threadPool.execute(() -> handleClient(clientSocket, waiters));
             }
         }
     }
 
-    private static void handleClient(Socket clientSocket) {
-        try (Socket socket = clientSocket;
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
-
-            String requestLine = in.readLine();
-            if (requestLine == null) return;
-
-            System.out.println("Received request: " + requestLine);
-            String[] requestParts = requestLine.split(" ", 3);
-            String method = requestParts.length >= 1 ? requestParts[0] : "";
-            String path = requestParts.length >= 2 ? requestParts[1] : "";
-
-            Map<String, String> headers = new HashMap<>();
-            String line;
-            int clientLamportClock = 0;
-
-            while ((line = in.readLine()) != null && !line.isEmpty()) {
-                int separatorIndex = line.indexOf(":");
-                if (separatorIndex != -1) {
-                    String headerName = line.substring(0, separatorIndex).trim();
-                    String headerValue = line.substring(separatorIndex + 1).trim();
-                    headers.put(headerName, headerValue);
-
-                    if (headerName.equalsIgnoreCase("Lamport-Clock")) {
-                        clientLamportClock = Integer.parseInt(headerValue);
-                    }
-                }
+    // The store and its persistence are static and shared by every server started in this JVM, so set them up once
+    private static synchronized void initialize() throws IOException {
+        if (writeAheadLog != null) return;
+
+        // Load weather data from persistent storage: the last snapshot plus everything logged after it
+        weatherData.addListener(stationIndex);
+        weatherData.addListener(expiryQueue);
+        weatherData.addListener(stationHistory);
+        weatherData.addListener(stationAggregates);
+        weatherData.addListener(subscriptions);
+        weatherData.addListener(changeIndex);
+        loadFromFile();
+        lamportClock.update(changeIndex.latest()); // New writes must be stamped after every recovered one
+        changeIndex.truncate();
+        writeAheadLog = new WriteAheadLog(Paths.get(LOG_FILE));
+        weatherData.addListener(writeAheadLog); // Every store change is logged in the order it was applied
+
+        // A replica's stations expire when the primary's removals arrive, not by its own clock
+        if (REPLICA_OF != null) {
+            int separator = REPLICA_OF.lastIndexOf(':');
+            replica = new Replica(REPLICA_OF.substring(0, separator), Integer.parseInt(REPLICA_OF.substring(separator + 1)),
+                    weatherData, changeIndex, lamportClock, Paths.get(CURSOR_FILE), AggregationServer::awaitDurable);
+            replica.start();
+        }
+        if (REPLICATION_PORT > 0) {
+            replicationServer = new ReplicationServer(REPLICATION_PORT, weatherData, changeIndex, subscriptions);
+            System.out.println("Accepting replicas on port " + REPLICATION_PORT);
+        }
+
+        // Periodically clean up expired entries and fold the log into a fresh snapshot
+        if (replica == null) {
+            scheduler.scheduleAtFixedRate(AggregationServer::cleanExpiredData, EXPIRY_SWEEP_MILLIS, EXPIRY_SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        scheduler.scheduleAtFixedRate(AggregationServer::takeSnapshot, SNAPSHOT_INTERVAL_SECONDS, SNAPSHOT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        scheduler.scheduleAtFixedRate(() -> stationHistory.trim(Instant.now().toEpochMilli()), 1, 1, TimeUnit.MINUTES);
+        scheduler.scheduleAtFixedRate(() -> stationAggregates.trim(Instant.now().toEpochMilli()), 1, 1, TimeUnit.MINUTES);
+    }
+
+    // How a front end lets a long-poll wait for the store to move past a version before building its answer
+    private interface Waits {
+        HttpResponse after(long version, long waitMillis, Supplier<HttpResponse> answer);
+    }
+
+    // On the request's own thread. With permits, only that many wait at once and the rest are answered now,
+    // as if their wait had run out; a client simply polls again.
+    private static Waits blocking(Semaphore permits) {
+        return (version, waitMillis, answer) -> {
+            if (permits != null && !permits.tryAcquire()) {
+                return answer.get();
             }
+            try {
+                subscriptions.awaitChange(version, waitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (permits != null) permits.release();
+            }
+            return answer.get();
+        };
+    }
 
-            lamportClock.update(clientLamportClock);
+    // Without a thread: the request is parked and its answer built on the executor once the store changes
+    private static Waits parked(Executor executor) {
+        return (version, waitMillis, answer) -> HttpResponse.later(
+                subscriptions.onChange(version, waitMillis).thenApplyAsync(current -> answer.get(), executor));
+    }
+
+    private static void handleClient(Socket clientSocket, Semaphore waiters) {
+        try (Socket socket = clientSocket;
+             InputStream in = new BufferedInputStream(socket.getInputStream());
+             OutputStream out = new BufferedOutputStream(socket.getOutputStream())) {
 
-            if ("PUT".equalsIgnoreCase(method)) {
-                handlePutRequest(in, out, socket.getRemoteSocketAddress().toString(), headers);
-            } else if ("GET".equalsIgnoreCase(method)) {
-                handleGetRequest(out);
-            } else {
-                out.println("HTTP/1.1 400 Bad Request");
-                out.println("Lamport-Clock: " + lamportClock.getClock());
-                out.println();
+            socket.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+            String origin = socket.getRemoteSocketAddress().toString();
+
+            // Serve requests until the client stops asking for keep-alive or goes idle
+            while (true) {
+                HttpRequest request;
+                try {
+                    request = HttpRequest.readFrom(in, origin);
+                } catch (SocketTimeoutException e) {
+                    return;
+                } catch (HttpRequest.PayloadTooLargeException e) {
+                    errorResponse(413).writeTo(out);
+                    return;
+                } catch (IOException e) {
+                    errorResponse(400).writeTo(out);
+                    return;
+                }
+                if (request == null) return;
+                if (isStreamRequest(request)) {
+                    streamEvents(request, out, waiters); // Holds the connection until the subscriber goes away
+                    return;
+                }
+
+                HttpResponse response = handleRequest(request, blocking(waiters));
+                request.discardBody(); // Keeps the stream aligned if the handler stopped reading early
+                response.writeTo(out);
+                if (!response.isKeepAlive()) return;
             }
 
         } catch (IOException e) {
@@ -101,128 +210,614 @@ public class AggregationServer {
         }
     }
 
-    private static void handlePutRequest(BufferedReader in, PrintWriter out, String contentServer, Map<String, String> headers) throws IOException {
-        lamportClock.tick();
+    private static boolean isStreamRequest(HttpRequest request) {
+        return "GET".equalsIgnoreCase(request.getMethod()) && "/stream".equals(request.getRoute());
+    }
 
-        int contentLength = Integer.parseInt(headers.getOrDefault("Content-Length", "0"));
-        if (contentLength == 0) {
-            out.println("HTTP/1.1 204 No Content");
-            out.println("Lamport-Clock: " + lamportClock.getClock());
-            out.println();
+    // GET /stream[?id=A,B]: Server-Sent Events for every change to the chosen stations (all by default) until
+    // the client disconnects. Only the thread-per-connection front ends can hold a connection like this, and a
+    // stream takes one of the waiting permits, if the front end has them, for as long as it lasts.
+    private static void streamEvents(HttpRequest request, OutputStream out, Semaphore waiters) throws IOException {
+        lamportClock.update(request.getLamportClock());
+        String ids = request.getQueryParameters().get("id");
+        Set<String> filter = null;
+        if (ids != null) {
+            filter = new HashSet<>();
+            for (String id : ids.split(",")) {
+                filter.add(id.trim());
+            }
+        }
+        if (waiters != null && !waiters.tryAcquire()) {
+            errorResponse(503).writeTo(out);
+            return;
+        }
+        Subscriptions.Subscriber subscriber = subscriptions.subscribe(filter);
+        if (subscriber == null) {
+            if (waiters != null) waiters.release();
+            errorResponse(503).writeTo(out);
             return;
         }
+        try (Subscriptions.Subscriber events = subscriber) {
+            new HttpResponse(200)
+                    .header("Content-Type", "text/event-stream")
+                    .header("Cache-Control", "no-cache")
+                    .header("Lamport-Clock", lamportClock.tickAndGet())
+                    .writeTo(out);
+            // A write to a closed connection fails within a keep-alive interval or two, ending the loop
+            while (true) {
+                out.write(Subscriptions.toEventStream(events.take(STREAM_KEEPALIVE_MILLIS)).getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The subscriber disconnected
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (waiters != null) waiters.release();
+        }
+    }
 
-        char[] bodyData = new char[contentLength];
-        in.read(bodyData, 0, contentLength);
-        String jsonData = new String(bodyData);
+    // Shared by the blocking and NIO front ends. Receiving the request and sending the response are one Lamport
+    // event each, and the header carries the value of this response's own send event.
+    // A parked response is stamped once it is known, as that is when it is sent.
+    private static HttpResponse handleRequest(HttpRequest request, Waits waits) {
+        HttpResponse response = dispatch(request, waits);
+        if (response.pending() != null) {
+            return HttpResponse.later(response.pending().thenApply(known -> finish(request, known)));
+        }
+        return finish(request, response);
+    }
 
-        if (!isValidJson(jsonData)) {
-            out.println("HTTP/1.1 400 Bad Request");
-            out.println("Lamport-Clock: " + lamportClock.getClock());
-            out.println();
-            return;
+    private static HttpResponse finish(HttpRequest request, HttpResponse response) {
+        response.header("Lamport-Clock", lamportClock.tickAndGet());
+        if (request.isKeepAlive()) {
+            response.keepAlive(IDLE_TIMEOUT_MILLIS / 1000);
         }
+        return response;
+    }
+
+    // A response the front ends send without running a handler; it is still a send event with its own clock
+    static HttpResponse errorResponse(int status) {
+        return new HttpResponse(status).header("Lamport-Clock", lamportClock.tickAndGet());
+    }
 
-        JsonObject jsonObject = JsonParser.parseString(jsonData).getAsJsonObject();
+    private static HttpResponse dispatch(HttpRequest request, Waits waits) {
+        System.out.println("Received request: " + request);
+        lamportClock.update(request.getLamportClock());
+
+        try {
+            if ("PUT".equalsIgnoreCase(request.getMethod())) {
+                if (replica != null) {
+                    return new HttpResponse(405).header("Allow", "GET"); // Writes go to the primary
+                }
+                return handlePutRequest(request);
+            } else if ("DELETE".equalsIgnoreCase(request.getMethod())) {
+                if (replica != null) {
+                    return new HttpResponse(405).header("Allow", "GET");
+                }
+                return handleDeleteRequest(request);
+            } else if ("GET".equalsIgnoreCase(request.getMethod())) {
+                return handleGetRequest(request, waits);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new HttpResponse(500);
+        }
+        return new HttpResponse(400);
+    }
+
+    private static HttpResponse handlePutRequest(HttpRequest request) throws IOException {
+        // An empty PUT is a heartbeat: it keeps every station of the sending server alive
+        if (request.getContentLength() == 0) {
+            String serverId = request.getHeader("Content-Server-Id");
+            if (serverId != null) {
+                long now = Instant.now().toEpochMilli();
+                if (expiryQueue.heartbeat(serverId.trim(), now) > 0) {
+                    writeAheadLog.append(WriteAheadLog.heartbeatRecord(serverId.trim(), now)); // Not waited for
+                }
+            }
+            return new HttpResponse(204);
+        }
+
+        // Parsed straight from the body stream; each observation is validated while it is built
+        ObservationReader.Result result;
+        try {
+            result = ObservationReader.read(request.getBody(), isNdjson(request));
+        } catch (JsonParseException | IOException e) {
+            return new HttpResponse(400);
+        }
+        if (result.batch) {
+            return handleBatchPutRequest(request, result.observations);
+        }
+
+        ObservationReader.Observation observation = result.observations.get(0);
+        if (observation.error != null) {
+            return new HttpResponse(400);
+        }
+        String contentServer = contentServerId(request);
+        Comparator<StationRecord> order = writeOrder(request);
+        JsonObject jsonObject = observation.json;
         jsonObject.addProperty("origin", contentServer);
+        stampOriginClock(jsonObject, request, order);
         jsonObject.addProperty("timestamp", Instant.now().toEpochMilli());
 
-        String entryId = jsonObject.get("id").getAsString();
-        synchronized (fileLock) {
-            weatherData.put(entryId, jsonObject);
-            if (weatherData.size() > MAX_ENTRIES) {
-                Iterator<String> iterator = weatherData.keySet().iterator();
-                iterator.next();
-                iterator.remove(); // Remove the oldest entry
+        StationRecord record;
+        StationStore.PutResult outcome;
+        long writeTime = changeIndex.begin();
+        try {
+            jsonObject.addProperty("lamport", writeTime);
+            record = new StationRecord(jsonObject);
+            outcome = weatherData.putIfNewer(record, order); // Evicts per the configured policy once over capacity
+        } finally {
+            changeIndex.end(writeTime);
+        }
+        if (isStale(record, outcome)) {
+            return new HttpResponse(409);
+        }
+
+        int status = awaitDurable() ? 200 : 500;
+        return new HttpResponse(status);
+    }
+
+    // DELETE /?id=<station>: a content server stops publishing a station (its file or block is gone). Only the
+    // server that wrote the station can remove it, and only a reading it sent before the removal; the station
+    // stays if another server has taken it over or a later reading has arrived. Repeats answer 204 as well.
+    private static HttpResponse handleDeleteRequest(HttpRequest request) {
+        String id = request.getQueryParameters().get("id");
+        String serverId = request.getHeader("Content-Server-Id");
+        long clock = request.getLamportClock();
+        if (id == null || serverId == null || serverId.isBlank() || clock <= 0) {
+            return new HttpResponse(400);
+        }
+        String origin = serverId.trim();
+        StationRecord removed = weatherData.removeIf(id,
+                record -> origin.equals(record.getOrigin()) && record.getOriginClock() < clock);
+        if (removed != null && !awaitDurable()) {
+            return new HttpResponse(500);
+        }
+        return new HttpResponse(204);
+    }
+
+    // A JSON array or an NDJSON stream of observations, answered with one status per entry
+    private static HttpResponse handleBatchPutRequest(HttpRequest request, List<ObservationReader.Observation> entries) {
+        String contentServer = contentServerId(request);
+        Comparator<StationRecord> order = writeOrder(request);
+        long now = Instant.now().toEpochMilli();
+        JsonObject[] results = new JsonObject[entries.size()];
+        List<StationRecord> accepted = new ArrayList<>();
+        List<Integer> acceptedPositions = new ArrayList<>();
+        List<StationStore.PutResult> outcomes;
+        long writeTime = changeIndex.begin(); // The whole batch is one write event
+        try {
+            for (int i = 0; i < entries.size(); i++) {
+                ObservationReader.Observation entry = entries.get(i);
+                results[i] = new JsonObject();
+                results[i].addProperty("index", i);
+                if (entry.error != null) {
+                    results[i].addProperty("status", 400);
+                    results[i].addProperty("error", entry.error);
+                    continue;
+                }
+                JsonObject jsonObject = entry.json;
+                jsonObject.addProperty("origin", contentServer);
+                stampOriginClock(jsonObject, request, order);
+                jsonObject.addProperty("timestamp", now);
+                jsonObject.addProperty("lamport", writeTime);
+                results[i].addProperty("id", jsonObject.get("id").getAsString());
+                accepted.add(new StationRecord(jsonObject));
+                acceptedPositions.add(i);
             }
+
+            // One store update for the whole batch, then a single wait on the log
+            outcomes = weatherData.putAllIfNewer(accepted, order);
+        } finally {
+            changeIndex.end(writeTime);
+        }
+        if (!awaitDurable()) {
+            return new HttpResponse(500);
+        }
+        for (int i = 0; i < accepted.size(); i++) {
+            StationStore.PutResult outcome = outcomes.get(i);
+            int status = isStale(accepted.get(i), outcome) ? 409 : outcome.previous == null ? 201 : 200;
+            results[acceptedPositions.get(i)].addProperty("status", status);
         }
-        serverTimestamps.put(contentServer, Instant.now().toEpochMilli());
 
-        synchronized (fileLock) {
-            try {
-                writeToTempFile(weatherData);
-                if (commitTempFile()) {
-                    out.println("HTTP/1.1 200 OK");
-                    out.println("Lamport-Clock: " + lamportClock.getClock());
-                    out.println();
+        JsonArray statuses = new JsonArray();
+        for (JsonObject result : results) {
+            statuses.add(result);
+        }
+        byte[] body = statuses.toString().getBytes(StandardCharsets.UTF_8);
+        return new HttpResponse(200)
+                .header("Content-Type", "application/json")
+                .header("Content-Length", body.length)
+                .body(body);
+    }
+
+    // Content servers that send a stable id share one expiry lease across all their stations and connections;
+    // without it the connection's address is used, as before
+    private static String contentServerId(HttpRequest request) {
+        String serverId = request.getHeader("Content-Server-Id");
+        return serverId == null || serverId.isBlank() ? request.getOrigin() : serverId.trim();
+    }
+
+    // Writes from a server that names itself are ordered per station by its Lamport clock (see
+    // StationRecord.LAMPORT_ORDER); anonymous writes keep last-writer-wins
+    private static Comparator<StationRecord> writeOrder(HttpRequest request) {
+        String serverId = request.getHeader("Content-Server-Id");
+        boolean ordered = serverId != null && !serverId.isBlank() && request.getLamportClock() > 0;
+        return ordered ? StationRecord.LAMPORT_ORDER : null;
+    }
+
+    private static void stampOriginClock(JsonObject jsonObject, HttpRequest request, Comparator<StationRecord> order) {
+        if (order != null) {
+            jsonObject.addProperty("origin_clock", request.getLamportClock());
+        } else {
+            jsonObject.remove("origin_clock");
+        }
+    }
+
+    // Rejected because the station holds a later write; a rejected repeat of the stored write is a retry and succeeds
+    private static boolean isStale(StationRecord record, StationStore.PutResult result) {
+        return !result.applied && StationRecord.LAMPORT_ORDER.compare(record, result.previous) < 0;
+    }
+
+    private static boolean isNdjson(HttpRequest request) {
+        String contentType = request.getHeader("Content-Type");
+        return contentType != null && contentType.toLowerCase().startsWith("application/x-ndjson");
+    }
+
+    // Only acknowledge once the records are on disk; concurrent PUTs share the same fsync
+    private static boolean awaitDurable() {
+        try {
+            writeAheadLog.sync().get();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            System.out.println("Error writing to the log: " + e.getCause().getMessage());
+            return false;
+        }
+    }
+
+    private static HttpResponse handleGetRequest(HttpRequest request, Waits waits) {
+        if ("/stats".equals(request.getRoute())) {
+            return handleStats();
+        }
+        if ("/history".equals(request.getRoute())) {
+            return handleHistory(request.getQueryParameters());
+        }
+        if ("/aggregate".equals(request.getRoute())) {
+            return handleAggregate(request.getQueryParameters());
+        }
+        if ("/stream".equals(request.getRoute())) {
+            return new HttpResponse(501); // NIO front end; long-poll instead
+        }
+
+        long waitMillis;
+        try {
+            waitMillis = Math.min(Long.parseLong(request.getQueryParameters().getOrDefault("wait", "0")) * 1000, MAX_WAIT_MILLIS);
+        } catch (NumberFormatException e) {
+            return new HttpResponse(400);
+        }
+        if (request.getQueryParameters().containsKey("since")) {
+            return handleDelta(request.getQueryParameters().get("since"), waitMillis, waits);
+        }
+
+        StationQuery query;
+        try {
+            query = new StationQuery(request.getQueryParameters());
+        } catch (IllegalArgumentException e) {
+            return new HttpResponse(400);
+        }
+        if (!query.isEmpty()) {
+            return handleQuery(query);
+        }
+
+        FeedCache.Feed feed = feedCache.get();
+
+        // Long-poll: ?wait=<seconds> holds a request whose feed is still current until the store changes
+        if (waitMillis > 0 && FeedCache.matches(request.getHeader("If-None-Match"), feed.etag)) {
+            return waits.after(feed.version, waitMillis, () -> feedResponse(request, feedCache.get()));
+        }
+        return feedResponse(request, feed);
+    }
+
+    private static HttpResponse feedResponse(HttpRequest request, FeedCache.Feed feed) {
+        // Unchanged since the client's last poll: no body at all
+        if (FeedCache.matches(request.getHeader("If-None-Match"), feed.etag)) {
+            return new HttpResponse(304).header("ETag", feed.etag);
+        }
+
+        return new HttpResponse(200)
+                .header("Content-Type", "application/json")
+                .header("Content-Length", feed.body.length)
+                .header("ETag", feed.etag)
+                .body(feed.body);
+    }
+
+    // GET /?since=<clock>: stations written after the clock and ids removed since, with the clock to ask from
+    // next time. A clock older than the removals still remembered gets the whole store with "full": true.
+    private static HttpResponse handleDelta(String sinceParameter, long waitMillis, Waits waits) {
+        long since;
+        try {
+            since = Long.parseLong(sinceParameter);
+        } catch (NumberFormatException e) {
+            return new HttpResponse(400);
+        }
+
+        long version = weatherData.version();
+        ChangeIndex.Delta delta = changeIndex.since(since, weatherData);
+        if (delta.isEmpty() && waitMillis > 0) {
+            return waits.after(version, waitMillis, () -> deltaResponse(changeIndex.since(since, weatherData)));
+        }
+        return deltaResponse(delta);
+    }
+
+    private static HttpResponse deltaResponse(ChangeIndex.Delta delta) {
+        byte[] body = ChangeIndex.toJson(delta).getBytes(StandardCharsets.UTF_8);
+
+        return new HttpResponse(200)
+                .header("Content-Type", "application/json")
+                .header("Content-Length", body.length)
+                .body(body);
+    }
+
+    // Filtered GET: only the matching stations are looked up and serialized
+    private static HttpResponse handleQuery(StationQuery query) {
+        List<StationRecord> results = query.run(weatherData, stationIndex);
+        byte[] jsonResponse = convertToJson(results).getBytes(StandardCharsets.UTF_8);
+        int status = results.isEmpty() && query.isSingleStation() ? 404 : 200;
+
+        return new HttpResponse(status)
+                .header("Content-Type", "application/json")
+                .header("Content-Length", jsonResponse.length)
+                .body(jsonResponse);
+    }
+
+    // GET /history?id=X&from=&to= with epoch-millisecond bounds; defaults to the whole retention window.
+    // The response is columnar: one timestamps array and one array per field, with null for missing readings.
+    private static HttpResponse handleHistory(Map<String, String> parameters) {
+        String id = parameters.get("id");
+        long now = Instant.now().toEpochMilli();
+        long from;
+        long to;
+        try {
+            from = parameters.containsKey("from") ? Long.parseLong(parameters.get("from")) : now - HISTORY_MILLIS;
+            to = parameters.containsKey("to") ? Long.parseLong(parameters.get("to")) : Long.MAX_VALUE;
+        } catch (NumberFormatException e) {
+            return new HttpResponse(400);
+        }
+        if (id == null || from > to) {
+            return new HttpResponse(400);
+        }
+        if (!stationHistory.contains(id)) {
+            return new HttpResponse(404);
+        }
+
+        StationHistory.Samples samples = stationHistory.range(id, from, to);
+        JsonObject history = new JsonObject();
+        history.addProperty("id", id);
+        JsonArray timestamps = new JsonArray();
+        for (long timestamp : samples.timestamps) {
+            timestamps.add(timestamp);
+        }
+        history.add("timestamps", timestamps);
+        JsonObject fields = new JsonObject();
+        for (int field = 0; field < samples.fields.size(); field++) {
+            JsonArray column = new JsonArray();
+            boolean any = false;
+            for (double[] values : samples.values) {
+                if (Double.isNaN(values[field])) {
+                    column.add(JsonNull.INSTANCE);
                 } else {
-                    out.println("HTTP/1.1 500 Internal Server Error");
-                    out.println("Lamport-Clock: " + lamportClock.getClock());
-                    out.println();
+                    column.add(values[field]);
+                    any = true;
                 }
-            } catch (IOException e) {
-                out.println("HTTP/1.1 500 Internal Server Error");
-                out.println("Lamport-Clock: " + lamportClock.getClock());
-                out.println();
+            }
+            if (any) {
+                fields.add(samples.fields.get(field), column);
             }
         }
+        history.add("fields", fields);
+        byte[] body = history.toString().getBytes(StandardCharsets.UTF_8);
+
+        return new HttpResponse(200)
+                .header("Content-Type", "application/json")
+                .header("Content-Length", body.length)
+                .body(body);
     }
 
-    private static void handleGetRequest(PrintWriter out) throws IOException {
-        lamportClock.tick();
-        String jsonResponse = convertToJson(weatherData);
+    // GET /aggregate?field=air_temp&groupBy=state&window=5m. Without a window the statistics cover each station's
+    // current reading; with one they cover every reading received in that window. groupBy defaults to all stations.
+    private static HttpResponse handleAggregate(Map<String, String> parameters) {
+        String field = parameters.get("field");
+        String groupBy = parameters.getOrDefault("groupBy", StationAggregates.ALL);
+        String window = parameters.get("window");
+        long windowMillis;
+        try {
+            windowMillis = window == null ? 0 : parseDuration(window);
+        } catch (IllegalArgumentException e) {
+            return new HttpResponse(400);
+        }
+        if (field == null || (window != null && windowMillis <= 0) || !WeatherData.numberFields().contains(field)
+                || !StationAggregates.DIMENSIONS.contains(groupBy) || windowMillis > StationAggregates.MAX_WINDOW_MILLIS) {
+            return new HttpResponse(400);
+        }
+
+        Map<String, StationAggregates.Result> results =
+                stationAggregates.query(field, groupBy, windowMillis, Instant.now().toEpochMilli());
+        JsonObject aggregate = new JsonObject();
+        aggregate.addProperty("field", field);
+        aggregate.addProperty("groupBy", groupBy);
+        if (window != null) {
+            aggregate.addProperty("window", window);
+        }
+        JsonObject groups = new JsonObject();
+        for (Map.Entry<String, StationAggregates.Result> result : results.entrySet()) {
+            JsonObject group = new JsonObject();
+            group.addProperty("count", result.getValue().count);
+            group.addProperty("min", result.getValue().min);
+            group.addProperty("max", result.getValue().max);
+            group.addProperty("avg", result.getValue().average());
+            groups.add(result.getKey(), group);
+        }
+        aggregate.add("groups", groups);
+        byte[] body = aggregate.toString().getBytes(StandardCharsets.UTF_8);
 
-        out.println("HTTP/1.1 200 OK");
-        out.println("Content-Type: application/json");
-        out.println("Content-Length: " + jsonResponse.length());
-        out.println("Lamport-Clock: " + lamportClock.getClock());
-        out.println();
-        out.print(jsonResponse);
-        out.flush();
+        return new HttpResponse(200)
+                .header("Content-Type", "application/json")
+                .header("Content-Length", body.length)
+                .body(body);
     }
 
-    private static void cleanExpiredData() {
-        long currentTime = Instant.now().toEpochMilli();
-        synchronized (fileLock) {
-            weatherData.entrySet().removeIf(entry -> {
-                JsonObject jsonObject = entry.getValue();
-                long timestamp = jsonObject.get("timestamp").getAsLong();
-                return (currentTime - timestamp > EXPIRATION_TIME_MILLIS);
-            });
+    // "90s", "5m", "1h", or plain milliseconds
+    private static long parseDuration(String text) {
+        String value = text.trim().toLowerCase();
+        TimeUnit unit = TimeUnit.MILLISECONDS;
+        if (value.endsWith("s")) {
+            unit = TimeUnit.SECONDS;
+        } else if (value.endsWith("m")) {
+            unit = TimeUnit.MINUTES;
+        } else if (value.endsWith("h")) {
+            unit = TimeUnit.HOURS;
+        }
+        if (unit != TimeUnit.MILLISECONDS) {
+            value = value.substring(0, value.length() - 1);
         }
+        return unit.toMillis(Long.parseLong(value)); // NumberFormatException is an IllegalArgumentException
+    }
+
+    // Capacity, eviction and expiry counters for monitoring
+    private static HttpResponse handleStats() {
+        JsonObject stats = new JsonObject();
+        stats.addProperty("stations", weatherData.size());
+        stats.addProperty("maxEntries", weatherData.maxEntries());
+        stats.addProperty("estimatedBytes", weatherData.estimatedBytes());
+        stats.addProperty("maxBytes", weatherData.maxBytes());
+        stats.addProperty("evictionPolicy", weatherData.policy());
+        stats.addProperty("evictions", weatherData.evictions());
+        stats.addProperty("contentServers", expiryQueue.servers());
+        stats.addProperty("historyStations", stationHistory.stations());
+        stats.addProperty("historyBytes", stationHistory.encodedBytes());
+        stats.addProperty("aggregateGroups", stationAggregates.groups());
+        stats.addProperty("subscribers", subscriptions.size());
+        stats.addProperty("tombstones", changeIndex.tombstones());
+        stats.add("replication", replicationStats());
+        byte[] body = stats.toString().getBytes(StandardCharsets.UTF_8);
+
+        return new HttpResponse(200)
+                .header("Content-Type", "application/json")
+                .header("Content-Length", body.length)
+                .body(body);
+    }
+
+    // Role, plus either the replicas being fed or the primary being followed and how far behind it this server is
+    private static JsonObject replicationStats() {
+        JsonObject replication = new JsonObject();
+        replication.addProperty("role", replica != null ? "replica" : "primary");
+        if (replica != null) {
+            replication.addProperty("primary", replica.primary());
+            replication.addProperty("connected", replica.isConnected());
+            replication.addProperty("primaryClock", replica.primaryClock());
+            replication.addProperty("lagMillis", replica.lagMillis());
+            replication.addProperty("lastContactMillis", replica.sinceLastContact(Instant.now().toEpochMilli()));
+        }
+        if (replicationServer != null) {
+            JsonObject replicas = new JsonObject();
+            for (Map.Entry<String, Long> sent : replicationServer.replicaClocks().entrySet()) {
+                replicas.addProperty(sent.getKey(), sent.getValue());
+            }
+            replication.add("replicas", replicas);
+        }
+        return replication;
+    }
+
+    // Each removal is logged by the store listeners; when nothing is due, nothing is written
+    private static void cleanExpiredData() {
+        expiryQueue.expire(weatherData, Instant.now().toEpochMilli());
+    }
+
+    // Writes the whole store as a new snapshot and drops the log segments it covers
+    private static void takeSnapshot() {
         try {
-            writeToTempFile(weatherData);
-            commitTempFile();
+            if (writeAheadLog.recordsSinceRotate() == 0) {
+                return; // Nothing changed since the last snapshot
+            }
+            // Every station's state is at least as new as its records in the retired segments, and replaying
+            // newer records from the fresh segment on top of the snapshot is harmless
+            long firstNewSegment = writeAheadLog.rotate();
+            List<StationRecord> snapshot = weatherData.snapshot();
+            // Snapshots hold stations, not leases: restate each server's last heartbeat in the new segment
+            for (Map.Entry<String, Long> lease : expiryQueue.lastSeen().entrySet()) {
+                writeAheadLog.carryOver(WriteAheadLog.heartbeatRecord(lease.getKey(), lease.getValue()));
+            }
+
+            writeToTempFile(snapshot);
+            if (commitTempFile()) {
+                writeAheadLog.deleteSegmentsBefore(firstNewSegment);
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            System.out.println("Error taking snapshot: " + e.getMessage());
+        }
+    }
+
+    // Virtual threads need a Java 21 runtime; the build still targets 17, so look the factory up at runtime
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            MethodHandle factory = MethodHandles.publicLookup().findStatic(Executors.class,
+                    "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+            return (ExecutorService) factory.invoke();
+        } catch (Throwable e) {
+            System.err.println("Virtual threads are not available on this JVM. Falling back to a cached thread pool.");
+            return Executors.newCachedThreadPool();
         }
     }
 
     private static void loadFromFile() {
         File dataFile = new File(DATA_FILE);
+        File legacyFile = new File(LEGACY_DATA_FILE);
         if (dataFile.exists()) {
             try {
-                String fileContent = new String(Files.readAllBytes(dataFile.toPath()));
+                for (StationRecord record : SnapshotFile.read(dataFile.toPath())) {
+                    weatherData.put(record);
+                }
+            } catch (IOException e) {
+                System.out.println("Error loading data from file: " + e.getMessage());
+            }
+        } else if (legacyFile.exists()) {
+            try {
+                String fileContent = new String(Files.readAllBytes(legacyFile.toPath()), StandardCharsets.UTF_8);
                 JsonArray jsonArray = JsonParser.parseString(fileContent).getAsJsonArray();
                 for (JsonElement element : jsonArray) {
-                    JsonObject jsonObject = element.getAsJsonObject();
-                    String entryId = jsonObject.get("id").getAsString();
-                    weatherData.put(entryId, jsonObject);
+                    weatherData.put(new StationRecord(element.getAsJsonObject()));
                 }
+                writeToTempFile(weatherData.snapshot());
+                commitTempFile();
+                System.out.println("Imported " + weatherData.size() + " entries from " + LEGACY_DATA_FILE);
             } catch (IOException e) {
                 System.out.println("Error loading data from file: " + e.getMessage());
             }
         }
-    }
 
-    private static boolean isValidJson(String jsonData) {
         try {
-            JsonElement jsonElement = JsonParser.parseString(jsonData);
-            return jsonElement.isJsonObject();
-        } catch (JsonSyntaxException e) {
-            return false;
+            WriteAheadLog.replay(Paths.get(LOG_FILE), record -> {
+                String op = record.get("op").getAsString();
+                if ("put".equals(op)) {
+                    weatherData.put(new StationRecord(record.getAsJsonObject("data")));
+                } else if ("heartbeat".equals(op)) {
+                    expiryQueue.heartbeat(record.get("origin").getAsString(), record.get("time").getAsLong());
+                } else {
+                    weatherData.remove(record.get("id").getAsString());
+                }
+            });
+        } catch (IOException e) {
+            System.out.println("Error replaying log: " + e.getMessage());
         }
     }
 
-    private static void writeToTempFile(Map<String, JsonObject> data) throws IOException {
-        try (FileWriter fileWriter = new FileWriter(TEMP_FILE)) {
-            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-            JsonArray jsonArray = new JsonArray();
-            for (JsonObject jsonObject : data.values()) {
-                jsonArray.add(jsonObject);
-            }
-            gson.toJson(jsonArray, fileWriter);
-        }
+    private static void writeToTempFile(Collection<StationRecord> data) throws IOException {
+        SnapshotFile.write(Paths.get(TEMP_FILE), data);
     }
 
     private static boolean commitTempFile() {
@@ -238,9 +833,7 @@ public class AggregationServer {
         }
     }
 
-    public static String convertToJson(Map<String, JsonObject> weatherData) {
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        Collection<JsonObject> dataCollection = weatherData.values();
-        return gson.toJson(dataCollection);
+    public static String convertToJson(Collection<StationRecord> weatherData) {
+        return FeedCache.toJson(weatherData);
     }
 }
@@ -0,0 +1,230 @@
+package com.weather.app;
+
+import com.google.gson.*;
+import com.google.gson.stream.JsonWriter;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Stations ordered by the Lamport time of their latest write, plus tombstones for recent removals, so that
+// GET /?since=<clock> reads only what changed after the client's clock. Writes in progress are tracked so
+// the clock handed back to clients never passes a write that has been stamped but not yet applied; the
+// tracking is lock-free, as every writer goes through it.
+public class ChangeIndex implements StationStore.Listener {
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    private final LamportClock clock;
+    private final int maxTombstones;
+    private final ConcurrentSkipListMap<Key, Change> changes = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, Key> latest = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Key> tombstones = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger tombstoneCount = new AtomicInteger();
+    private final ConcurrentSkipListMap<Long, Integer> inFlight = new ConcurrentSkipListMap<>(); // Time -> writers
+    private volatile long horizon; // Removals at or before this time may have been forgotten
+
+    public ChangeIndex(LamportClock clock, int maxTombstones) {
+        this.clock = clock;
+        this.maxTombstones = maxTombstones;
+    }
+
+    public static class Delta {
+        public final long clock;
+        public final boolean full;
+        public final List<StationRecord> stations;
+        public final List<String> removed;
+
+        Delta(long clock, boolean full, List<StationRecord> stations, List<String> removed) {
+            this.clock = clock;
+            this.full = full;
+            this.stations = stations;
+            this.removed = removed;
+        }
+
+        public boolean isEmpty() {
+            return !full && stations.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    // Stamps a write with a new Lamport time; the caller applies it to the store and then calls end. The write
+    // first holds the lowest time its tick can return, so watermark never sees it unstamped and untracked.
+    public long begin() {
+        long floor = clock.getClock() + 1;
+        hold(floor);
+        long time = clock.tickAndGet();
+        hold(time);
+        release(floor);
+        return time;
+    }
+
+    public void end(long time) {
+        release(time);
+    }
+
+    // Every write at or before this time has been applied. The clock is read first: a write not yet holding
+    // anything then ticks later, past it.
+    public long watermark() {
+        long now = clock.getClock();
+        Map.Entry<Long, Integer> oldest = inFlight.firstEntry();
+        return oldest == null ? now : Math.min(now, oldest.getKey() - 1);
+    }
+
+    private void hold(long time) {
+        inFlight.merge(time, 1, Integer::sum);
+    }
+
+    private void release(long time) {
+        inFlight.computeIfPresent(time, (t, writers) -> writers == 1 ? null : writers - 1);
+    }
+
+    // Highest write time indexed so far, e.g. after recovering the store at startup
+    public long latest() {
+        return changes.isEmpty() ? 0 : changes.lastKey().time;
+    }
+
+    // Forgets every removal seen so far; clients with an older clock get the full feed. Used after recovery,
+    // where the log's removals were replayed with times that mean nothing to clients.
+    public void truncate() {
+        horizon = watermark();
+        Key tombstone;
+        while ((tombstone = tombstones.poll()) != null) {
+            dropTombstone(tombstone);
+        }
+    }
+
+    // Changes with since < time <= the returned clock, or the whole store if removals after since were forgotten
+    public Delta since(long since, StationStore store) {
+        long until = watermark();
+        if (since < horizon) {
+            return new Delta(until, true, store.snapshot(), Collections.emptyList());
+        }
+        List<StationRecord> stations = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        if (since < until) {
+            for (Change change : changes.subMap(new Key(since + 1, ""), new Key(until + 1, "")).values()) {
+                if (change.record != null) {
+                    stations.add(change.record);
+                } else {
+                    removed.add(change.id);
+                }
+            }
+        }
+        return new Delta(until, false, stations, removed);
+    }
+
+    public int tombstones() {
+        return tombstoneCount.get();
+    }
+
+    @Override
+    public void stationPut(StationRecord record, StationRecord previous) {
+        index(new Key(record.getLamportTime(), record.getId()), new Change(record.getId(), record));
+    }
+
+    // Removals (expiry, eviction) are events of their own and get their own time. They are stamped after the
+    // station's lock is released, so the tombstone only replaces the removed version if nothing newer has been
+    // indexed for the station since.
+    @Override
+    public void afterRemoval(StationRecord record) {
+        long time = begin();
+        try {
+            Key removed = new Key(record.getLamportTime(), record.getId());
+            Key key = new Key(time, record.getId());
+            changes.put(key, new Change(record.getId(), null)); // Before it is linked, so a newer put can unlink it
+            if (!latest.replace(record.getId(), removed, key)) {
+                changes.remove(key); // Written again since
+                return;
+            }
+            changes.remove(removed);
+            tombstones.add(key);
+            if (tombstoneCount.incrementAndGet() > maxTombstones) {
+                Key oldest = tombstones.poll();
+                if (oldest != null) {
+                    dropTombstone(oldest);
+                }
+            }
+        } finally {
+            end(time);
+        }
+    }
+
+    // {"clock": n, "full": false, "stations": [...], "removed": [ids]}; stations are written as in the feed
+    public static String toJson(Delta delta) {
+        StringWriter buffer = new StringWriter();
+        try (JsonWriter writer = GSON.newJsonWriter(buffer)) {
+            writer.beginObject();
+            writer.name("clock").value(delta.clock);
+            writer.name("full").value(delta.full);
+            writer.name("stations").beginArray();
+            for (StationRecord record : delta.stations) {
+                record.data().writeTo(writer, GSON);
+            }
+            writer.endArray();
+            writer.name("removed").beginArray();
+            for (String id : delta.removed) {
+                writer.value(id);
+            }
+            writer.endArray();
+            writer.endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // A StringWriter does not fail
+        }
+        return buffer.toString();
+    }
+
+    // Runs inside the station's critical section, so one station's keys are replaced in order
+    private void index(Key key, Change change) {
+        Key previous = latest.put(change.id, key);
+        if (previous != null) {
+            changes.remove(previous);
+        }
+        changes.put(key, change);
+    }
+
+    private void dropTombstone(Key key) {
+        tombstoneCount.decrementAndGet();
+        horizon = Math.max(horizon, key.time);
+        Change change = changes.get(key);
+        if (change != null && change.record == null) {
+            changes.remove(key);
+            latest.remove(key.id, key); // Unless the station has been written again since
+        }
+    }
+
+    private static class Change {
+        final String id;
+        final StationRecord record; // Null for a removal
+
+        Change(String id, StationRecord record) {
+            this.id = id;
+            this.record = record;
+        }
+    }
+
+    private static class Key implements Comparable<Key> {
+        final long time;
+        final String id;
+
+        Key(long time, String id) {
+            this.time = time;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int byTime = Long.compare(time, other.time);
+            return byTime != 0 ? byTime : id.compareTo(other.id);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && compareTo((Key) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(time, id);
+        }
+    }
+}
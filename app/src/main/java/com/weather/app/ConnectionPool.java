@@ -0,0 +1,133 @@
+package com.weather.app;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Client-side pool of persistent connections, keyed by host:port
+public class ConnectionPool implements Closeable {
+
+    // Kept below the server's idle timeout so we rarely pick up a connection the server is about to drop
+    private static final long MAX_IDLE_MILLIS = 10_000;
+
+    public interface Connector {
+        Socket connect(URL url) throws IOException;
+    }
+
+    private final Connector connector;
+    private final Map<String, Deque<PooledConnection>> idleConnections = new ConcurrentHashMap<>();
+
+    public ConnectionPool(Connector connector) {
+        this.connector = connector;
+    }
+
+    // Sends the requests back-to-back on one connection (pipelining) and reads the responses in order
+    public List<HttpResponse> exchange(URL url, List<byte[]> requests) throws IOException {
+        PooledConnection connection = acquire(url);
+        try {
+            return exchange(connection, requests);
+        } catch (IOException e) {
+            connection.close();
+            if (!connection.reused) {
+                throw e;
+            }
+            // The server may have closed an idle connection; retry once on a fresh one
+            PooledConnection fresh = new PooledConnection(key(url), connector.connect(url));
+            try {
+                return exchange(fresh, requests);
+            } catch (IOException retryFailure) {
+                fresh.close();
+                throw retryFailure;
+            }
+        }
+    }
+
+    private List<HttpResponse> exchange(PooledConnection connection, List<byte[]> requests) throws IOException {
+        for (byte[] request : requests) {
+            connection.out.write(request);
+        }
+        connection.out.flush();
+
+        List<HttpResponse> responses = new ArrayList<>();
+        boolean reusable = true;
+        for (int i = 0; i < requests.size(); i++) {
+            HttpResponse response = HttpResponse.readFrom(connection.in);
+            responses.add(response);
+            reusable &= response.isKeepAlive();
+            if (!reusable && i < requests.size() - 1) {
+                throw new IOException("Server closed the connection after " + (i + 1) + " of " + requests.size() + " requests");
+            }
+        }
+        release(connection, reusable);
+        return responses;
+    }
+
+    private PooledConnection acquire(URL url) throws IOException {
+        String key = key(url);
+        Deque<PooledConnection> connections = idleConnections.get(key);
+        if (connections != null) {
+            PooledConnection connection;
+            while ((connection = connections.pollFirst()) != null) {
+                if (connection.isUsable()) {
+                    return connection;
+                }
+                connection.close();
+            }
+        }
+        return new PooledConnection(key, connector.connect(url));
+    }
+
+    private void release(PooledConnection connection, boolean reusable) {
+        if (!reusable) {
+            connection.close();
+            return;
+        }
+        connection.reused = true;
+        connection.idleSince = System.currentTimeMillis();
+        idleConnections.computeIfAbsent(connection.key, k -> new ConcurrentLinkedDeque<>()).offerFirst(connection);
+    }
+
+    @Override
+    public void close() {
+        for (Deque<PooledConnection> connections : idleConnections.values()) {
+            PooledConnection connection;
+            while ((connection = connections.pollFirst()) != null) {
+                connection.close();
+            }
+        }
+    }
+
+    private static String key(URL url) {
+        return url.getHost() + ":" + url.getPort();
+    }
+
+    private static class PooledConnection implements Closeable {
+        final String key;
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        boolean reused;
+        long idleSince;
+
+        PooledConnection(String key, Socket socket) throws IOException {
+            this.key = key;
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        boolean isUsable() {
+            return !socket.isClosed() && System.currentTimeMillis() - idleSince < MAX_IDLE_MILLIS;
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed by the peer
+            }
+        }
+    }
+}
@@ -3,38 +3,99 @@ package com.weather.app;
 import com.google.gson.*;
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class ContentServer {
 
     private static LamportClock lamportClock = new LamportClock();
     private static final int RETRY_LIMIT = 3;
+    private static final ConnectionPool connectionPool = new ConnectionPool(ContentServer::createSocket);
+    // Sent with every PUT so the aggregation server can expire all of this server's stations together. It must
+    // survive a restart, or the old lease lingers until it expires; see defaultServerId.
+    private static String serverId = System.getProperty("contentServer.id");
+    private static boolean clockSynchronized;
+    // Requests written back-to-back on one connection before their responses are read, and the most stations
+    // in one batch PUT; together they bound the memory used by files with thousands of stations
+    private static final int PIPELINE_DEPTH = 16;
+    private static final int BATCH_RECORDS = 500;
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    // Daemon mode (--watch): queue bounds, retry backoff and the threads that parse watched files
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final long BACKOFF_BASE_MILLIS = 200;
+    private static final long BACKOFF_MAX_MILLIS = 30_000;
+    private static final int WATCH_THREADS = 4;
+    private static final long HEARTBEAT_INTERVAL_SECONDS = 10; // Well inside the aggregation server's 30-second expiry
     
     public static void main(String[] args) {
         if (args.length < 2) {
-            System.out.println("Usage: java ContentServer <server_url> <file_path>");
+            System.out.println("Usage: java ContentServer <server_url>[,<server_url>...] [--batch] [--watch] [--id <server_id>] <file_path> [file_path...]");
             return;
         }
 
         String serverUrl = args[0];
-        String filePath = args[1];
+        boolean batch = false;
+        boolean watch = false;
+        int next = 1;
+        while (next < args.length - 1 && args[next].startsWith("--")) {
+            if ("--batch".equals(args[next])) {
+                batch = true;
+                next++;
+            } else if ("--watch".equals(args[next])) {
+                watch = true;
+                next++;
+            } else if ("--id".equals(args[next])) {
+                setServerId(args[next + 1]);
+                next += 2;
+            } else {
+                break;
+            }
+        }
+        List<String> filePaths = Arrays.asList(args).subList(next, args.length);
+        if (serverId == null) {
+            setServerId(defaultServerId(filePaths));
+        }
 
         try {
-            boolean success = sendDataWithRetry(serverUrl, filePath, RETRY_LIMIT);
+            if (watch) {
+                watch(serverUrl, filePaths); // Runs until the process is stopped
+                return;
+            }
+            boolean success = sendDataWithRetry(serverUrl, filePaths, batch, RETRY_LIMIT);
             if (!success) {
                 System.out.println("Failed to upload data after " + RETRY_LIMIT + " retries.");
             }
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            connectionPool.close();
         }
     }
 
     public static boolean sendDataWithRetry(String serverUrl, String filePath, int retries) {
+        return sendDataWithRetry(serverUrl, Collections.singletonList(filePath), retries);
+    }
+
+    public static boolean sendDataWithRetry(String serverUrl, List<String> filePaths, int retries) {
+        return sendDataWithRetry(serverUrl, filePaths, false, retries);
+    }
+
+    // Every attempt resends the same Lamport clocks, so the aggregation server treats a retry of a write it
+    // already stored as that write instead of a new one. A comma-separated list of servers is a sharded cluster:
+    // each station is sent straight to the shard that owns it.
+    public static boolean sendDataWithRetry(String serverUrl, List<String> filePaths, boolean batch, int retries) {
         int attempt = 0;
+        long firstClock = -1;
         while (attempt < retries) {
             try {
-                sendData(serverUrl, filePath);
+                if (firstClock < 0) {
+                    synchronizeClock(serverUrl);
+                    firstClock = lamportClock.tickAndGet();
+                }
+                long nextClock = sendRecords(serverUrl, filePaths, batch, firstClock);
+                lamportClock.update(nextClock - 1); // Later writes come after every clock just used
                 return true; // Successful upload
             } catch (IOException e) {
                 attempt++;
@@ -44,73 +105,266 @@ public class ContentServer {
         return false;
     }
 
-    public static void sendData(String serverUrl, String filePath) throws IOException {
-        Map<String, String> dataMap = readDataFromFile(filePath);
-        String jsonData = mapToJson(dataMap);
-
-        lamportClock.tick();
-
-        URL url = new URL(serverUrl);
-        Socket socket = createSocket(url);
-
-        try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-
-            // Send PUT request
-            out.write("PUT / HTTP/1.1\r\n");
-            out.write("Host: " + url.getHost() + "\r\n");
-            out.write("Content-Type: application/json\r\n");
-            out.write("Content-Length: " + jsonData.length() + "\r\n");
-            out.write("Lamport-Clock: " + lamportClock.getClock() + "\r\n");
-            out.write("\r\n");
-            out.write(jsonData);
-            out.flush();
-
-            // Read response
-            String statusLine = in.readLine();
-            if (statusLine == null) return;
-            System.out.println("Response: " + statusLine);
-
-            Map<String, String> headers = new HashMap<>();
-            String line;
-            while (!(line = in.readLine()).equals("")) {
-                String[] header = line.split(": ");
-                headers.put(header[0], header[1]);
+    public static String getServerId() {
+        if (serverId == null) {
+            serverId = defaultServerId(Collections.emptyList());
+        }
+        return serverId;
+    }
+
+    // Derived from the host and the files it publishes, so the same server restarted with the same files keeps
+    // its id (and its lease) without being given --id
+    static String defaultServerId(List<String> filePaths) {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "localhost";
+        }
+        StringBuilder identity = new StringBuilder(host);
+        for (String path : new TreeSet<>(filePaths)) {
+            identity.append('\n').append(Paths.get(path).toAbsolutePath().normalize());
+        }
+        return "content-" + UUID.nameUUIDFromBytes(identity.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static void setServerId(String id) {
+        serverId = id;
+    }
+
+    // An empty PUT that extends all stations this server has published without resending them; a sharded
+    // cluster gets one per shard, as this server's stations are spread across all of them
+    public static void sendHeartbeat(String serverUrl) throws IOException {
+        for (String shard : serverUrl.split(",")) {
+            URL url = normalizeUrl(shard.trim());
+            byte[] request = buildPutRequest(url, "", lamportClock.tickAndGet());
+            handleResponse(connectionPool.exchange(url, Collections.singletonList(request)).get(0));
+        }
+    }
+
+    private static boolean isSharded(String serverUrl) {
+        return serverUrl.contains(",");
+    }
+
+    // Streams the stations of every file, in order, and sends them in requests: one PUT per station, or with
+    // batch a JSON-array PUT of up to BATCH_RECORDS stations. With several servers each station goes to the
+    // shard that owns it. Each server's requests are pipelined PIPELINE_DEPTH at a time, so only that many
+    // requests are held in memory. Request n, counted in the order requests are sealed, carries clock
+    // firstClock + n; the same files therefore get the same clocks on a retry. Returns the clock after the last
+    // one used.
+    static long sendRecords(String serverUrl, List<String> filePaths, boolean batch, long firstClock) throws IOException {
+        HashRing ring = isSharded(serverUrl) ? HashRing.parse(serverUrl) : null;
+        Map<String, Outbox> outboxes = new LinkedHashMap<>();
+        for (String server : ring == null ? Collections.singletonList(serverUrl) : ring.shards()) {
+            outboxes.put(server, new Outbox(normalizeUrl(server), batch));
+        }
+        long clock = firstClock;
+
+        for (String filePath : filePaths) {
+            boolean empty = true;
+            try (StationFileReader reader = new StationFileReader(Paths.get(filePath))) {
+                for (Map<String, String> record = reader.next(); record != null; record = reader.next()) {
+                    empty = false;
+                    String id = record.get("id");
+                    Outbox outbox = outboxes.get(ring == null ? serverUrl : ring.owner(id == null ? "" : id)); // The server rejects a missing id
+                    outbox.records.add(record);
+                    if (!batch || outbox.records.size() == BATCH_RECORDS) {
+                        outbox.seal(clock++);
+                        if (outbox.requests.size() == PIPELINE_DEPTH) {
+                            outbox.flush();
+                        }
+                    }
+                }
+            }
+            if (empty) {
+                System.out.println("No station data in " + filePath);
+            }
+        }
+
+        for (Outbox outbox : outboxes.values()) {
+            if (!outbox.records.isEmpty()) {
+                outbox.seal(clock++);
+            }
+            outbox.flush();
+        }
+        return clock;
+    }
+
+    // Requests for one server that have not been sent yet, and the stations of the batch being filled
+    private static class Outbox {
+        final URL url;
+        final boolean batch;
+        final List<Map<String, String>> records = new ArrayList<>();
+        final List<byte[]> requests = new ArrayList<>();
+
+        Outbox(URL url, boolean batch) {
+            this.url = url;
+            this.batch = batch;
+        }
+
+        // Turns the pending stations into one request: a plain PUT for one station, an array for a batch
+        void seal(long clock) throws IOException {
+            String json = batch ? GSON.toJson(records) : mapToJson(records.get(0));
+            requests.add(buildPutRequest(url, json, clock));
+            records.clear();
+        }
+
+        void flush() throws IOException {
+            if (requests.isEmpty()) return;
+            for (HttpResponse response : connectionPool.exchange(url, requests)) {
+                handleResponse(response);
             }
+            requests.clear();
+        }
+    }
 
-            // Update Lamport clock
-            int serverLamportClock = Integer.parseInt(headers.getOrDefault("Lamport-Clock", "0"));
-            lamportClock.update(serverLamportClock);
+    // A fresh process starts its clock at zero, below what it sent before a restart; the first exchange (a
+    // heartbeat) moves it past every clock the aggregation server has seen, so new writes are not taken as stale
+    private static void synchronizeClock(String serverUrl) throws IOException {
+        if (clockSynchronized) return;
+        sendHeartbeat(serverUrl);
+        clockSynchronized = true;
+    }
 
-            StringBuilder responseBody = new StringBuilder();
-            while (in.ready() && (line = in.readLine()) != null) {
-                responseBody.append(line);
+    // Daemon mode: uploads each file under the given files and directories (not recursive) whenever its content
+    // changes, through an UploadQueue. Parsing shares one small scheduler, however many files there are. Heartbeats
+    // get a thread of their own: a parse blocked on a full queue must not keep the stations from being renewed.
+    public static void watch(String serverUrl, List<String> paths) throws IOException {
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(WATCH_THREADS);
+        ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor();
+        heartbeats.scheduleAtFixedRate(() -> {
+            try {
+                sendHeartbeat(serverUrl);
+            } catch (IOException e) {
+                System.out.println("Heartbeat failed: " + e.getMessage());
             }
+        }, HEARTBEAT_INTERVAL_SECONDS, HEARTBEAT_INTERVAL_SECONDS, TimeUnit.SECONDS);
 
-            System.out.println("Server Response Body: " + responseBody.toString());
+        try (UploadQueue queue = newUploadQueue(serverUrl);
+             StationFileWatcher watcher = new StationFileWatcher(paths, scheduler,
+                     (file, id, station) -> queue.offer(new UploadQueue.Upload(id, station)))) {
+            watcher.run();
         } finally {
-            socket.close();
+            scheduler.shutdownNow();
+            heartbeats.shutdownNow();
+        }
+    }
+
+    static UploadQueue newUploadQueue(String serverUrl) {
+        return new UploadQueue(QUEUE_CAPACITY, PIPELINE_DEPTH, BACKOFF_BASE_MILLIS, BACKOFF_MAX_MILLIS,
+                uploads -> sendUploads(serverUrl, uploads));
+    }
+
+    // One round from the upload queue: the readings are grouped by shard (a single group without sharding) and
+    // each group is pipelined on one pooled connection. A round that fails part way is retried whole; readings
+    // that did arrive carry the same clocks again, so the server answers them as repeats.
+    static List<Integer> sendUploads(String serverUrl, List<UploadQueue.Upload> uploads) throws IOException {
+        synchronizeClock(serverUrl);
+        HashRing ring = isSharded(serverUrl) ? HashRing.parse(serverUrl) : null;
+        Map<String, List<Integer>> byServer = new LinkedHashMap<>();
+        for (int i = 0; i < uploads.size(); i++) {
+            UploadQueue.Upload upload = uploads.get(i);
+            if (upload.clock < 0) {
+                upload.clock = lamportClock.tickAndGet();
+            }
+            String server = ring == null ? serverUrl : ring.owner(upload.stationId);
+            byServer.computeIfAbsent(server, k -> new ArrayList<>()).add(i);
+        }
+
+        Integer[] statuses = new Integer[uploads.size()];
+        for (Map.Entry<String, List<Integer>> server : byServer.entrySet()) {
+            URL url = normalizeUrl(server.getKey());
+            List<byte[]> requests = new ArrayList<>();
+            for (int position : server.getValue()) {
+                UploadQueue.Upload upload = uploads.get(position);
+                requests.add(upload.data == null
+                        ? buildDeleteRequest(url, upload.stationId, upload.clock)
+                        : buildPutRequest(url, mapToJson(upload.data), upload.clock));
+            }
+            List<HttpResponse> responses = connectionPool.exchange(url, requests);
+            for (int j = 0; j < responses.size(); j++) {
+                handleResponse(responses.get(j));
+                statuses[server.getValue().get(j)] = responses.get(j).getStatus();
+            }
+        }
+        return Arrays.asList(statuses);
+    }
+
+    public static void sendData(String serverUrl, String filePath) throws IOException {
+        sendDataPipelined(serverUrl, Collections.singletonList(filePath));
+    }
+
+    // One PUT per station, pipelined on a single pooled connection
+    public static void sendDataPipelined(String serverUrl, List<String> filePaths) throws IOException {
+        lamportClock.update(sendRecords(serverUrl, filePaths, false, lamportClock.tickAndGet()) - 1);
+    }
+
+    // The stations as JSON-array PUTs; the server stores each array with one durable write
+    public static void sendDataBatch(String serverUrl, List<String> filePaths) throws IOException {
+        lamportClock.update(sendRecords(serverUrl, filePaths, true, lamportClock.tickAndGet()) - 1);
+    }
+
+    // The station's file or block is gone; the aggregation server removes it if this server still owns it
+    private static byte[] buildDeleteRequest(URL url, String stationId, long clock) {
+        String request = "DELETE /?id=" + URLEncoder.encode(stationId, StandardCharsets.UTF_8) + " HTTP/1.1\r\n"
+                + "Host: " + url.getHost() + "\r\n"
+                + "Lamport-Clock: " + clock + "\r\n"
+                + "Content-Server-Id: " + getServerId() + "\r\n"
+                + "Connection: keep-alive\r\n"
+                + "\r\n";
+        return request.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] buildPutRequest(URL url, String json, long clock) throws IOException {
+        byte[] jsonData = json.getBytes(StandardCharsets.UTF_8);
+
+        String head = "PUT / HTTP/1.1\r\n"
+                + "Host: " + url.getHost() + "\r\n"
+                + "Content-Type: application/json\r\n"
+                + "Content-Length: " + jsonData.length + "\r\n"
+                + "Lamport-Clock: " + clock + "\r\n"
+                + "Content-Server-Id: " + getServerId() + "\r\n"
+                + "Connection: keep-alive\r\n"
+                + "\r\n";
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        request.write(head.getBytes(StandardCharsets.ISO_8859_1));
+        request.write(jsonData);
+        return request.toByteArray();
+    }
+
+    private static void handleResponse(HttpResponse response) {
+        System.out.println("Response: " + response.getStatusLine());
+
+        // Update Lamport clock
+        String serverLamportClock = response.getHeader("Lamport-Clock");
+        lamportClock.update(serverLamportClock == null ? 0 : Long.parseLong(serverLamportClock));
+
+        if (response.getStatus() == 409) {
+            System.out.println("The server holds a later update of this station; this one was not applied.");
         }
+        System.out.println("Server Response Body: " + new String(response.getBody(), StandardCharsets.UTF_8));
+    }
+
+    private static URL normalizeUrl(String serverUrl) throws MalformedURLException {
+        if (!serverUrl.startsWith("http://") && !serverUrl.startsWith("https://")) {
+            serverUrl = "http://" + serverUrl;
+        }
+        return new URL(serverUrl);
     }
 
     protected static Socket createSocket(URL url) throws IOException {
         return new Socket(url.getHost(), url.getPort());
     }
 
+    // The first station in the file, or an empty map if it has none
     public static Map<String, String> readDataFromFile(String filePath) throws IOException {
-        Map<String, String> dataMap = new HashMap<>();
-        List<String> lines = Files.readAllLines(Paths.get(filePath));
-        for (String line : lines) {
-            String[] kv = line.split(":", 2); // Limit to 2 to handle values with colons
-            if (kv.length >= 2) {
-                dataMap.put(kv[0].trim(), kv[1].trim());
-            }
+        try (StationFileReader reader = new StationFileReader(Paths.get(filePath))) {
+            Map<String, String> record = reader.next();
+            return record == null ? new HashMap<>() : record;
         }
-        return dataMap;
     }
 
     public static String mapToJson(Map<String, String> map) {
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        return gson.toJson(map);
+        return GSON.toJson(map);
     }
 }
@@ -0,0 +1,157 @@
+package com.weather.app;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Decides which station the store drops when it is over capacity. inserted, updated and removed are called
+// inside the station's critical section; accessed is called by readers. Every call is O(log n).
+public interface EvictionPolicy {
+
+    String name();
+
+    void inserted(String id);
+
+    void updated(String id);
+
+    void accessed(String id);
+
+    void removed(String id);
+
+    // The station to evict next, or null if the policy never evicts
+    String victim();
+
+    static EvictionPolicy named(String name) {
+        switch (name.trim().toLowerCase()) {
+            case "fifo": return new Ranked("fifo", false, false);
+            case "lru": return new Ranked("lru", true, false);
+            case "lfu": return new Ranked("lfu", true, true);
+            case "ttl": return new TtlOnly();
+            default: throw new IllegalArgumentException("Unknown eviction policy: " + name);
+        }
+    }
+
+    // Stations ordered by (use count, last use) in a skip list; FIFO never reorders, LRU reorders on every
+    // use, and LFU also counts uses so that the least used station goes first
+    class Ranked implements EvictionPolicy {
+        private final String name;
+        private final boolean reorderOnUse;
+        private final boolean countUses;
+        private final AtomicLong clock = new AtomicLong();
+        private final ConcurrentHashMap<String, Rank> ranks = new ConcurrentHashMap<>();
+        private final ConcurrentSkipListMap<Rank, String> order = new ConcurrentSkipListMap<>();
+
+        Ranked(String name, boolean reorderOnUse, boolean countUses) {
+            this.name = name;
+            this.reorderOnUse = reorderOnUse;
+            this.countUses = countUses;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public void inserted(String id) {
+            ranks.compute(id, (key, existing) -> {
+                if (existing != null) {
+                    order.remove(existing);
+                }
+                Rank rank = new Rank(0, clock.incrementAndGet(), id);
+                order.put(rank, id);
+                return rank;
+            });
+        }
+
+        @Override
+        public void updated(String id) {
+            used(id);
+        }
+
+        @Override
+        public void accessed(String id) {
+            used(id);
+        }
+
+        @Override
+        public void removed(String id) {
+            ranks.computeIfPresent(id, (key, existing) -> {
+                order.remove(existing);
+                return null;
+            });
+        }
+
+        @Override
+        public String victim() {
+            Map.Entry<Rank, String> first = order.firstEntry();
+            return first == null ? null : first.getValue();
+        }
+
+        private void used(String id) {
+            if (!reorderOnUse) return;
+            // computeIfPresent: a read racing with a removal must not bring the station back
+            ranks.computeIfPresent(id, (key, existing) -> {
+                order.remove(existing);
+                Rank rank = new Rank(countUses ? existing.uses + 1 : 0, clock.incrementAndGet(), id);
+                order.put(rank, id);
+                return rank;
+            });
+        }
+    }
+
+    // Capacity is never enforced; stations only leave the store when they expire
+    class TtlOnly implements EvictionPolicy {
+        @Override
+        public String name() {
+            return "ttl";
+        }
+
+        @Override
+        public void inserted(String id) {}
+
+        @Override
+        public void updated(String id) {}
+
+        @Override
+        public void accessed(String id) {}
+
+        @Override
+        public void removed(String id) {}
+
+        @Override
+        public String victim() {
+            return null;
+        }
+    }
+
+    class Rank implements Comparable<Rank> {
+        final long uses;
+        final long lastUse;
+        final String id;
+
+        Rank(long uses, long lastUse, String id) {
+            this.uses = uses;
+            this.lastUse = lastUse;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Rank other) {
+            int byUses = Long.compare(uses, other.uses);
+            if (byUses != 0) return byUses;
+            int byLastUse = Long.compare(lastUse, other.lastUse);
+            return byLastUse != 0 ? byLastUse : id.compareTo(other.id);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Rank && compareTo((Rank) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(uses, lastUse, id);
+        }
+    }
+}
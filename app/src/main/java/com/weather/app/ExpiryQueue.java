@@ -0,0 +1,139 @@
+package com.weather.app;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+// Expiry tracked per content server rather than per station. Each origin holds one lease covering all of its
+// stations; a PUT or a heartbeat from the server extends the lease, and once the server has been silent for
+// the TTL all of its stations are dropped together. Leases are kept in a skip list ordered by deadline, so a
+// sweep only looks at the servers that are actually due. Records with no origin get a lease of their own.
+public class ExpiryQueue implements StationStore.Listener {
+
+    private final long ttlMillis;
+    private final ConcurrentHashMap<String, Lease> leases = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Deadline> deadlines = new ConcurrentSkipListSet<>();
+
+    public ExpiryQueue(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    @Override
+    public void stationPut(StationRecord record, StationRecord previous) {
+        String origin = origin(record);
+        if (previous != null && !origin.equals(origin(previous))) {
+            stationRemoved(previous); // The station moved to another server
+        }
+        leases.compute(origin, (key, lease) -> {
+            if (lease == null) {
+                lease = new Lease();
+            }
+            lease.stations.add(record.getId());
+            extend(key, lease, record.getTimestamp());
+            return lease;
+        });
+    }
+
+    @Override
+    public void stationRemoved(StationRecord record) {
+        leases.computeIfPresent(origin(record), (key, lease) -> {
+            lease.stations.remove(record.getId());
+            if (!lease.stations.isEmpty()) {
+                return lease;
+            }
+            deadlines.remove(new Deadline(lease.lastSeen + ttlMillis, key));
+            return null;
+        });
+    }
+
+    // Extends every station of a server at once; returns how many stations the server currently holds
+    public int heartbeat(String origin, long now) {
+        Lease lease = leases.computeIfPresent(origin, (key, existing) -> {
+            extend(key, existing, now);
+            return existing;
+        });
+        return lease == null ? 0 : lease.stations.size();
+    }
+
+    // Removes the stations of every server that has been silent for longer than the TTL
+    public List<StationRecord> expire(StationStore store, long now) {
+        List<StationRecord> expired = new ArrayList<>();
+        for (Deadline deadline : deadlines) {
+            if (deadline.time >= now) break;
+            Lease lease = leases.get(deadline.origin);
+            if (lease == null) continue;
+            for (String id : new ArrayList<>(lease.stations)) {
+                // A PUT or heartbeat may have arrived since the sweep started, so check again under the lock
+                StationRecord removed = store.removeIf(id, record ->
+                        origin(record).equals(deadline.origin) && lease.lastSeen + ttlMillis < now);
+                if (removed != null) {
+                    expired.add(removed);
+                }
+            }
+        }
+        return expired;
+    }
+
+    // When each server was last heard from, by origin; a snapshot carries these over so a restart keeps the leases
+    public Map<String, Long> lastSeen() {
+        Map<String, Long> lastSeen = new HashMap<>();
+        for (Map.Entry<String, Lease> lease : leases.entrySet()) {
+            lastSeen.put(lease.getKey(), lease.getValue().lastSeen);
+        }
+        return lastSeen;
+    }
+
+    public int servers() {
+        return leases.size();
+    }
+
+    public int size() {
+        int stations = 0;
+        for (Lease lease : leases.values()) {
+            stations += lease.stations.size();
+        }
+        return stations;
+    }
+
+    // Must run inside the origin's compute call
+    private void extend(String origin, Lease lease, long seen) {
+        deadlines.remove(new Deadline(lease.lastSeen + ttlMillis, origin));
+        lease.lastSeen = Math.max(lease.lastSeen, seen);
+        deadlines.add(new Deadline(lease.lastSeen + ttlMillis, origin));
+    }
+
+    private static String origin(StationRecord record) {
+        String origin = record.getOrigin();
+        return origin != null ? origin : record.getId();
+    }
+
+    private static class Lease {
+        final Set<String> stations = ConcurrentHashMap.newKeySet();
+        volatile long lastSeen = Long.MIN_VALUE / 2;
+    }
+
+    private static class Deadline implements Comparable<Deadline> {
+        final long time;
+        final String origin;
+
+        Deadline(long time, String origin) {
+            this.time = time;
+            this.origin = origin;
+        }
+
+        @Override
+        public int compareTo(Deadline other) {
+            int byTime = Long.compare(time, other.time);
+            return byTime != 0 ? byTime : origin.compareTo(other.origin);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Deadline && compareTo((Deadline) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(time, origin);
+        }
+    }
+}
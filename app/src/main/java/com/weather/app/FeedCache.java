@@ -0,0 +1,87 @@
+package com.weather.app;
+
+import com.google.gson.*;
+import com.google.gson.stream.JsonWriter;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Pre-encoded UTF-8 body of the full feed. It is rebuilt lazily on the first GET after the store's version
+// moves, so a burst of polls between two PUTs costs one serialization.
+public class FeedCache {
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    public static class Feed {
+        public final long version;
+        public final byte[] body;
+        public final String etag;
+
+        Feed(long version, byte[] body, String etag) {
+            this.version = version;
+            this.body = body;
+            this.etag = etag;
+        }
+    }
+
+    private final StationStore store;
+    // Distinguishes this process's versions from those of an earlier run, which restart from zero
+    private final String epoch = Long.toHexString(System.currentTimeMillis());
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+    private volatile Feed current;
+
+    public FeedCache(StationStore store) {
+        this.store = store;
+    }
+
+    public Feed get() {
+        Feed feed = current;
+        if (feed != null && feed.version == store.version()) {
+            return feed;
+        }
+        rebuildLock.lock();
+        try {
+            feed = current;
+            long version = store.version(); // Read before the snapshot so a concurrent change forces another rebuild
+            if (feed == null || feed.version != version) {
+                byte[] body = toJson(store.snapshot()).getBytes(StandardCharsets.UTF_8);
+                feed = new Feed(version, body, "\"" + epoch + "-" + version + "\"");
+                current = feed;
+            }
+            return feed;
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    // True if an If-None-Match header names the given entity tag
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Each record writes its own fields, so no JSON tree is built for the feed
+    public static String toJson(Collection<StationRecord> records) {
+        StringWriter buffer = new StringWriter();
+        try (JsonWriter writer = GSON.newJsonWriter(buffer)) {
+            writer.beginArray();
+            for (StationRecord record : records) {
+                record.data().writeTo(writer, GSON);
+            }
+            writer.endArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // A StringWriter does not fail
+        }
+        return buffer.toString();
+    }
+}
@@ -3,37 +3,52 @@ package com.weather.app;
 import com.google.gson.*;
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 public class GETClient {
 
     private LamportClock lamportClock = new LamportClock();
     private static final int RETRY_LIMIT = 3;
+    private final ConnectionPool connectionPool = new ConnectionPool(this::createSocket);
 
     public static void main(String[] args) {
-        if (args.length < 1) {
-            System.out.println("Usage: java GETClient <server_url>");
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        boolean follow = arguments.remove("--follow");
+        if (arguments.size() < 1) {
+            System.out.println("Usage: java GETClient <server_url> [station_id] [--follow]");
             return;
         }
 
-        String serverUrl = args[0];
+        String serverUrl = arguments.get(0);
+        String stationId = arguments.size() > 1 ? arguments.get(1) : null;
         GETClient client = new GETClient();
 
         try {
-            boolean success = client.sendGetRequestWithRetry(serverUrl, RETRY_LIMIT);
+            if (follow) {
+                client.followUpdates(serverUrl, stationId);
+                return;
+            }
+            boolean success = client.sendGetRequestWithRetry(serverUrl, stationId, RETRY_LIMIT);
             if (!success) {
                 System.out.println("Failed to fetch data after " + RETRY_LIMIT + " retries.");
             }
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            client.close();
         }
     }
 
     public boolean sendGetRequestWithRetry(String serverUrl, int retries) {
+        return sendGetRequestWithRetry(serverUrl, null, retries);
+    }
+
+    public boolean sendGetRequestWithRetry(String serverUrl, String stationId, int retries) {
         int attempt = 0;
         while (attempt < retries) {
             try {
-                sendGetRequest(serverUrl);
+                sendGetRequest(serverUrl, stationId);
                 return true; // Successful GET
             } catch (IOException e) {
                 attempt++;
@@ -44,52 +59,83 @@ public class GETClient {
     }
 
     public void sendGetRequest(String serverUrl) throws IOException {
+        sendGetRequest(serverUrl, null);
+    }
+
+    public void sendGetRequest(String serverUrl, String stationId) throws IOException {
         lamportClock.tick();
         URL url = normalizeUrl(serverUrl);
+        String path = stationId == null ? "/" : "/?id=" + URLEncoder.encode(stationId, StandardCharsets.UTF_8);
+
+        // Send GET request
+        String request = "GET " + path + " HTTP/1.1\r\n"
+                + "Host: " + url.getHost() + "\r\n"
+                + "Lamport-Clock: " + lamportClock.getClock() + "\r\n"
+                + "Connection: keep-alive\r\n"
+                + "\r\n";
+        HttpResponse response = connectionPool
+                .exchange(url, Collections.singletonList(request.getBytes(StandardCharsets.ISO_8859_1)))
+                .get(0);
+        System.out.println("Response: " + response.getStatusLine());
+
+        // Update Lamport clock
+        String serverLamportClock = response.getHeader("Lamport-Clock");
+        lamportClock.update(serverLamportClock == null ? 0 : Long.parseLong(serverLamportClock));
+
+        // Parse and display data
+        parseAndDisplay(new String(response.getBody(), StandardCharsets.UTF_8));
+    }
 
-        Socket socket = createSocket(url);
-
-        try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-
-            // Send GET request
-            out.write("GET / HTTP/1.1\r\n");
-            out.write("Host: " + url.getHost() + "\r\n");
-            out.write("Lamport-Clock: " + lamportClock.getClock() + "\r\n");
-            out.write("\r\n");
+    // Fetches the current data once, then prints each change the server pushes on /stream until it disconnects
+    public void followUpdates(String serverUrl, String stationId) throws IOException {
+        sendGetRequest(serverUrl, stationId);
+        lamportClock.tick();
+        URL url = normalizeUrl(serverUrl);
+        String path = stationId == null ? "/stream" : "/stream?id=" + URLEncoder.encode(stationId, StandardCharsets.UTF_8);
+        String request = "GET " + path + " HTTP/1.1\r\n"
+                + "Host: " + url.getHost() + "\r\n"
+                + "Lamport-Clock: " + lamportClock.getClock() + "\r\n"
+                + "Accept: text/event-stream\r\n"
+                + "\r\n";
+
+        try (Socket socket = createSocket(url)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(request.getBytes(StandardCharsets.ISO_8859_1));
             out.flush();
 
-            // Read response
-            String statusLine = in.readLine();
-            if (statusLine == null) return;
-            System.out.println("Response: " + statusLine);
-
-            Map<String, String> headers = new HashMap<>();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            String statusLine = HttpRequest.readLine(in);
+            if (statusLine == null || !statusLine.startsWith("HTTP/1.1 200")) {
+                throw new IOException("Server refused the stream: " + statusLine);
+            }
             String line;
-            int contentLength = 0;
-            while (!(line = in.readLine()).equals("")) {
-                String[] header = line.split(": ");
-                headers.put(header[0], header[1]);
-                if (header[0].equalsIgnoreCase("Content-Length")) {
-                    contentLength = Integer.parseInt(header[1]);
-                }
+            while ((line = HttpRequest.readLine(in)) != null && !line.isEmpty()) {
+                // Headers carry nothing the stream needs
             }
 
-            // Update Lamport clock
-            int serverLamportClock = Integer.parseInt(headers.getOrDefault("Lamport-Clock", "0"));
-            lamportClock.update(serverLamportClock);
-
-            char[] bodyChars = new char[contentLength];
-            in.read(bodyChars);
-            String body = new String(bodyChars);
-
-            // Parse and display data
-            parseAndDisplay(body);
-        } finally {
-            socket.close();
+            String event = null;
+            while ((line = HttpRequest.readLine(in)) != null) {
+                if (line.startsWith("event:")) {
+                    event = line.substring(6).trim();
+                } else if (line.startsWith("data:")) {
+                    // readLine decodes bytes one to one; the event data itself is UTF-8
+                    String data = new String(line.substring(5).trim().getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+                    if ("station".equals(event)) {
+                        parseAndDisplay("[" + data + "]");
+                    } else if ("removed".equals(event)) {
+                        System.out.println("Station removed: " + JsonParser.parseString(data).getAsJsonObject().get("id").getAsString());
+                    } else if ("reset".equals(event)) {
+                        sendGetRequest(serverUrl, stationId); // Updates were dropped, so start again from the full data
+                    }
+                }
+            }
         }
     }
 
+    public void close() {
+        connectionPool.close();
+    }
+
     private URL normalizeUrl(String serverUrl) throws MalformedURLException {
         if (!serverUrl.startsWith("http://") && !serverUrl.startsWith("https://")) {
             serverUrl = "http://" + serverUrl;
@@ -0,0 +1,80 @@
+package com.weather.app;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Consistent hashing of station ids onto shards. Each shard is placed on the ring at many points (virtual
+// nodes) so stations spread evenly, and adding or removing a shard only moves the stations next to its points.
+// Placement depends only on the shard names, not their order, and the hash is fixed, so every router and
+// content server given the same shard addresses agrees on where each station lives.
+public class HashRing {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final List<String> shards;
+
+    public HashRing(Collection<String> shards) {
+        this(shards, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public HashRing(Collection<String> shards, int virtualNodes) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("A ring needs at least one shard");
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(new LinkedHashSet<>(shards)));
+        for (String shard : this.shards) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(shard + "#" + i), shard);
+            }
+        }
+    }
+
+    // Comma-separated host:port list, as given on the command line
+    public static HashRing parse(String shardList) {
+        List<String> shards = new ArrayList<>();
+        for (String shard : shardList.split(",")) {
+            if (!shard.isBlank()) {
+                shards.add(normalize(shard));
+            }
+        }
+        return new HashRing(shards);
+    }
+
+    // "http://host:port/" and "host:port" name the same shard
+    static String normalize(String shard) {
+        String name = shard.trim();
+        if (name.startsWith("http://")) {
+            name = name.substring("http://".length());
+        }
+        while (name.endsWith("/")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        return name;
+    }
+
+    public List<String> shards() {
+        return shards;
+    }
+
+    // The first shard point at or after the id's hash, wrapping around the ring
+    public String owner(String stationId) {
+        Map.Entry<Long, String> point = ring.ceilingEntry(hash(stationId));
+        return point != null ? point.getValue() : ring.firstEntry().getValue();
+    }
+
+    // 64-bit FNV-1a over the UTF-8 bytes, then a finalizer so that similar names ("s#1", "s#2") land far apart
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
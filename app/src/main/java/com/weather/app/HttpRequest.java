@@ -0,0 +1,229 @@
+package com.weather.app;
+
+import java.io.*;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class HttpRequest {
+
+    static final int MAX_BODY_BYTES = 1024 * 1024;
+
+    private final String method;
+    private final String path;
+    private final Map<String, String> headers;
+    private final InputStream body;
+    private final String origin;
+
+    public HttpRequest(String method, String path, Map<String, String> headers, InputStream body, String origin) {
+        this.method = method;
+        this.path = path;
+        this.headers = headers;
+        this.body = body;
+        this.origin = origin;
+    }
+
+    // Reads one request from a blocking stream, returns null if the peer closed before sending one
+    public static HttpRequest readFrom(InputStream in, String origin) throws IOException {
+        String requestLine = readLine(in);
+        while (requestLine != null && requestLine.isEmpty()) {
+            requestLine = readLine(in); // Tolerate stray newlines left over from a previous body
+        }
+        if (requestLine == null) return null;
+
+        List<String> headerLines = new ArrayList<>();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            headerLines.add(line);
+        }
+
+        // The body is read straight off the connection by the handler, never past Content-Length
+        Map<String, String> headers = parseHeaders(headerLines);
+        return create(requestLine, headers, new BoundedInputStream(in, contentLength(headers)), origin);
+    }
+
+    static HttpRequest create(String requestLine, Map<String, String> headers, InputStream body, String origin) {
+        String[] requestParts = requestLine.split(" ", 3);
+        String method = requestParts.length >= 1 ? requestParts[0] : "";
+        String path = requestParts.length >= 2 ? requestParts[1] : "";
+        return new HttpRequest(method, path, headers, body, origin);
+    }
+
+    static Map<String, String> parseHeaders(List<String> headerLines) {
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (String line : headerLines) {
+            int separatorIndex = line.indexOf(":");
+            if (separatorIndex != -1) {
+                String headerName = line.substring(0, separatorIndex).trim();
+                String headerValue = line.substring(separatorIndex + 1).trim();
+                headers.put(headerName, headerValue);
+            }
+        }
+        return headers;
+    }
+
+    static int contentLength(Map<String, String> headers) throws IOException {
+        try {
+            int contentLength = Integer.parseInt(headers.getOrDefault("Content-Length", "0"));
+            if (contentLength < 0) {
+                throw new IOException("Negative Content-Length: " + contentLength);
+            }
+            if (contentLength > MAX_BODY_BYTES) {
+                throw new PayloadTooLargeException("Content-Length " + contentLength + " exceeds " + MAX_BODY_BYTES + " bytes");
+            }
+            return contentLength;
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid Content-Length: " + headers.get("Content-Length"));
+        }
+    }
+
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                return line.toString(StandardCharsets.ISO_8859_1);
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return line.size() > 0 ? line.toString(StandardCharsets.ISO_8859_1) : null;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    // Path without the query string, e.g. "/" for "/?id=IDS60901"
+    public String getRoute() {
+        int queryStart = path.indexOf('?');
+        return queryStart == -1 ? path : path.substring(0, queryStart);
+    }
+
+    public Map<String, String> getQueryParameters() {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        int queryStart = path.indexOf('?');
+        if (queryStart == -1) return parameters;
+        for (String pair : path.substring(queryStart + 1).split("&")) {
+            if (pair.isEmpty()) continue;
+            int separatorIndex = pair.indexOf('=');
+            String name = separatorIndex == -1 ? pair : pair.substring(0, separatorIndex);
+            String value = separatorIndex == -1 ? "" : pair.substring(separatorIndex + 1);
+            try {
+                parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                parameters.put(name, value); // Leave malformed escapes as they are
+            }
+        }
+        return parameters;
+    }
+
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public InputStream getBody() {
+        return body;
+    }
+
+    public int getContentLength() {
+        try {
+            return contentLength(headers);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // Skips whatever the handler left unread so the next request on the connection starts in the right place
+    public void discardBody() throws IOException {
+        body.skip(Long.MAX_VALUE);
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    public boolean isKeepAlive() {
+        return "keep-alive".equalsIgnoreCase(headers.get("Connection"));
+    }
+
+    public long getLamportClock() {
+        try {
+            return Long.parseLong(headers.getOrDefault("Lamport-Clock", "0"));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + path;
+    }
+
+    public static class PayloadTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        PayloadTooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    // Exposes exactly Content-Length bytes of the underlying connection
+    static class BoundedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = in.read();
+            if (b == -1) throw new EOFException("Connection closed inside the request body");
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) return -1;
+            int bytesRead = in.read(buffer, offset, (int) Math.min(length, remaining));
+            if (bytesRead == -1) throw new EOFException("Connection closed inside the request body");
+            remaining -= bytesRead;
+            return bytesRead;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            byte[] scratch = new byte[4096];
+            while (skipped < n && remaining > 0) {
+                int bytesRead = read(scratch, 0, (int) Math.min(scratch.length, n - skipped));
+                skipped += bytesRead;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close() {
+            // The connection outlives the request
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.weather.app;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletionStage;
+
+public class HttpResponse {
+
+    private final int status;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    private byte[] body = new byte[0];
+    private CompletionStage<HttpResponse> pending;
+
+    public HttpResponse(int status) {
+        this.status = status;
+    }
+
+    // Stands in for a response that is not known yet, e.g. a long-poll parked until the store changes; only
+    // the NIO front end accepts one
+    public static HttpResponse later(CompletionStage<HttpResponse> response) {
+        HttpResponse placeholder = new HttpResponse(0);
+        placeholder.pending = response;
+        return placeholder;
+    }
+
+    // The real response of a placeholder from later(), or null for an ordinary response
+    public CompletionStage<HttpResponse> pending() {
+        return pending;
+    }
+
+    // Client side: reads one response, using Content-Length so the connection can be reused afterwards
+    public static HttpResponse readFrom(InputStream in) throws IOException {
+        String statusLine = HttpRequest.readLine(in);
+        if (statusLine == null) {
+            throw new EOFException("Connection closed before a response was received");
+        }
+        String[] statusParts = statusLine.split(" ", 3);
+        HttpResponse response;
+        try {
+            response = new HttpResponse(Integer.parseInt(statusParts[1]));
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new IOException("Malformed status line: " + statusLine);
+        }
+
+        String line;
+        while ((line = HttpRequest.readLine(in)) != null && !line.isEmpty()) {
+            int separatorIndex = line.indexOf(":");
+            if (separatorIndex != -1) {
+                response.header(line.substring(0, separatorIndex).trim(), line.substring(separatorIndex + 1).trim());
+            }
+        }
+
+        String contentLength = response.getHeader("Content-Length");
+        if (contentLength != null) {
+            response.body(in.readNBytes(Integer.parseInt(contentLength)));
+        } else if (!response.hasNoBody() && !response.isKeepAlive()) {
+            response.body(in.readAllBytes()); // Body runs until the server closes the connection
+        }
+        return response;
+    }
+
+    public HttpResponse header(String name, Object value) {
+        headers.put(name, String.valueOf(value));
+        return this;
+    }
+
+    public HttpResponse body(byte[] body) {
+        this.body = body;
+        return this;
+    }
+
+    // Marks the response as persistent; a length is then required so the peer can find the next response
+    public HttpResponse keepAlive(int timeoutSeconds) {
+        if (!hasNoBody() && getHeader("Content-Length") == null) {
+            header("Content-Length", body.length);
+        }
+        header("Connection", "keep-alive");
+        header("Keep-Alive", "timeout=" + timeoutSeconds);
+        return this;
+    }
+
+    // Statuses that never carry a body, so they must not announce a length either
+    private boolean hasNoBody() {
+        return status == 204 || status == 304;
+    }
+
+    public boolean isKeepAlive() {
+        return "keep-alive".equalsIgnoreCase(getHeader("Connection"));
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getStatusLine() {
+        return "HTTP/1.1 " + status + " " + reasonPhrase(status);
+    }
+
+    public String getHeader(String name) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public byte[] toBytes() {
+        StringBuilder head = new StringBuilder();
+        head.append(getStatusLine()).append("\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("\r\n");
+
+        byte[] headBytes = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+        byte[] bytes = Arrays.copyOf(headBytes, headBytes.length + body.length);
+        System.arraycopy(body, 0, bytes, headBytes.length, body.length);
+        return bytes;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(toBytes());
+        out.flush();
+    }
+
+    static String reasonPhrase(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 201: return "Created";
+            case 204: return "No Content";
+            case 304: return "Not Modified";
+            case 400: return "Bad Request";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 409: return "Conflict";
+            case 413: return "Payload Too Large";
+            case 500: return "Internal Server Error";
+            case 501: return "Not Implemented";
+            case 502: return "Bad Gateway";
+            case 503: return "Service Unavailable";
+            default: return "Unknown";
+        }
+    }
+}
@@ -1,17 +1,39 @@
 package com.weather.app;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+// Lock-free Lamport clock on a 64-bit counter. The ...AndGet operations return the value of the event they
+// record, so a caller never picks up a value produced by another thread's tick.
 public class LamportClock {
-    private int clock;
+    private final AtomicLong clock = new AtomicLong();
+
+    public void tick() {
+        clock.incrementAndGet();
+    }
+
+    public long tickAndGet() {
+        return clock.incrementAndGet();
+    }
 
-    public synchronized void tick() {
-        clock++;
+    public void update(long receivedClock) {
+        updateAndGet(receivedClock);
     }
 
-    public synchronized void update(int receivedClock) {
-        clock = Math.max(clock, receivedClock) + 1;
+    // max(local, received) + 1. When the local clock is already ahead, which is the usual case, this is a single
+    // atomic increment; otherwise a CAS moves it past the received value.
+    public long updateAndGet(long receivedClock) {
+        while (true) {
+            long current = clock.get();
+            if (receivedClock < current) {
+                return clock.incrementAndGet(); // Still ahead however far others have moved it meanwhile
+            }
+            if (clock.compareAndSet(current, receivedClock + 1)) {
+                return receivedClock + 1;
+            }
+        }
     }
 
-    public synchronized int getClock() {
-        return clock;
+    public long getClock() {
+        return clock.get();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,236 @@
+package com.weather.app;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+// Single selector thread accepting and reading/writing every connection; complete requests are
+// handed to a small worker pool so slow disk work never stalls the event loop. A handler may return a
+// placeholder (HttpResponse.later) instead of waiting on a worker; the connection is answered when it completes.
+public class NioServer {
+
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    private static final long SWEEP_INTERVAL_MILLIS = 1_000;
+
+    private final String name;
+    private final int port;
+    private final Function<HttpRequest, HttpResponse> handler;
+    // Builds the responses the server sends on its own (malformed or oversized requests, handler failures)
+    private final IntFunction<HttpResponse> errors;
+    private final ExecutorService workers;
+    private final long idleTimeoutMillis;
+    private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private Selector selector;
+
+    public NioServer(int port, Function<HttpRequest, HttpResponse> handler, ExecutorService workers, long idleTimeoutMillis) {
+        this("Aggregation Server", port, handler, workers, idleTimeoutMillis);
+    }
+
+    public NioServer(String name, int port, Function<HttpRequest, HttpResponse> handler, ExecutorService workers, long idleTimeoutMillis) {
+        this(name, port, handler, HttpResponse::new, workers, idleTimeoutMillis);
+    }
+
+    public NioServer(String name, int port, Function<HttpRequest, HttpResponse> handler, IntFunction<HttpResponse> errors,
+                     ExecutorService workers, long idleTimeoutMillis) {
+        this.name = name;
+        this.port = port;
+        this.handler = handler;
+        this.errors = errors;
+        this.workers = workers;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public void run() throws IOException {
+        try (Selector selector = Selector.open();
+             ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            this.selector = selector;
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            System.out.println(name + " (NIO) is running on port " + port);
+
+            long lastSweep = System.currentTimeMillis();
+            while (!Thread.currentThread().isInterrupted()) {
+                selector.select(SWEEP_INTERVAL_MILLIS);
+                runPendingTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept(serverChannel);
+                        } else if (key.isReadable()) {
+                            read(key);
+                        } else if (key.isWritable()) {
+                            write(key);
+                        }
+                    } catch (IOException | CancelledKeyException e) {
+                        close(key);
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastSweep >= SWEEP_INTERVAL_MILLIS) {
+                    closeIdleConnections(now);
+                    lastSweep = now;
+                }
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel) throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        String origin = channel.getRemoteAddress().toString();
+        channel.register(selector, SelectionKey.OP_READ, new Connection(channel, origin));
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        readBuffer.clear();
+        int bytesRead = connection.channel.read(readBuffer);
+        if (bytesRead == -1) {
+            close(key);
+            return;
+        }
+        connection.lastActive = System.currentTimeMillis();
+        readBuffer.flip();
+        dispatch(key, readBuffer);
+    }
+
+    private void dispatch(SelectionKey key, ByteBuffer input) {
+        Connection connection = (Connection) key.attachment();
+        HttpRequest request;
+        try {
+            request = connection.parser.parse(input);
+        } catch (HttpRequest.PayloadTooLargeException e) {
+            respond(key, errors.apply(413));
+            return;
+        } catch (IOException e) {
+            respond(key, errors.apply(400));
+            return;
+        }
+        if (request == null) {
+            connection.leftover = null;
+            key.interestOps(SelectionKey.OP_READ);
+            return;
+        }
+
+        // Pipelined requests wait in leftover until this response is written, which keeps responses in order
+        connection.leftover = input.hasRemaining() ? copyOf(input) : null;
+        connection.busy = true;
+        key.interestOps(0);
+        workers.execute(() -> {
+            HttpResponse response;
+            try {
+                response = handler.apply(request);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                response = errors.apply(500);
+            }
+            if (response.pending() == null) {
+                post(key, response);
+                return;
+            }
+            response.pending().whenComplete((result, e) -> {
+                if (e != null) {
+                    e.printStackTrace();
+                }
+                post(key, e == null ? result : errors.apply(500));
+            });
+        });
+    }
+
+    // Hands a response to the selector thread, which owns the connection
+    private void post(SelectionKey key, HttpResponse response) {
+        pendingTasks.add(() -> respond(key, response));
+        selector.wakeup();
+    }
+
+    private void respond(SelectionKey key, HttpResponse response) {
+        if (!key.isValid()) return;
+        Connection connection = (Connection) key.attachment();
+        connection.output = ByteBuffer.wrap(response.toBytes());
+        connection.keepAlive = response.isKeepAlive();
+        connection.busy = true;
+        key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        connection.channel.write(connection.output);
+        if (connection.output.hasRemaining()) return;
+
+        connection.output = null;
+        connection.busy = false;
+        connection.lastActive = System.currentTimeMillis();
+        if (!connection.keepAlive) {
+            close(key);
+        } else if (connection.leftover != null) {
+            dispatch(key, connection.leftover);
+        } else {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void closeIdleConnections(long now) {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                Connection connection = (Connection) key.attachment();
+                if (!connection.busy && now - connection.lastActive > idleTimeoutMillis) {
+                    close(key);
+                }
+            }
+        }
+    }
+
+    private void runPendingTasks() {
+        Runnable task;
+        while ((task = pendingTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // Nothing left to do for a connection that is already gone
+        }
+    }
+
+    private static ByteBuffer copyOf(ByteBuffer source) {
+        ByteBuffer copy = ByteBuffer.allocate(source.remaining());
+        copy.put(source).flip();
+        return copy;
+    }
+
+    private static class Connection {
+        final SocketChannel channel;
+        final RequestParser parser;
+        ByteBuffer output;
+        ByteBuffer leftover;
+        boolean keepAlive;
+        boolean busy;
+        long lastActive = System.currentTimeMillis();
+
+        Connection(SocketChannel channel, String origin) {
+            this.channel = channel;
+            this.parser = new RequestParser(origin);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.weather.app;
+
+import com.google.gson.*;
+import com.google.gson.stream.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Streams a PUT body straight from the connection through Gson's JsonReader. Each observation is checked
+// and built into the JsonObject that gets stored in the same pass, with no intermediate String.
+public class ObservationReader {
+
+    public static class Observation {
+        public final JsonObject json; // null if the entry was rejected
+        public final String error;
+
+        Observation(JsonObject json, String error) {
+            this.json = json;
+            this.error = error;
+        }
+    }
+
+    public static class Result {
+        public final boolean batch;
+        public final List<Observation> observations;
+
+        Result(boolean batch, List<Observation> observations) {
+            this.batch = batch;
+            this.observations = observations;
+        }
+    }
+
+    // Accepts a single object, a JSON array of objects, or (if ndjson) a stream of objects.
+    // Syntax errors surface as JsonParseException and reject the whole body; IOException means the connection failed.
+    public static Result read(InputStream body, boolean ndjson) throws IOException {
+        try {
+            return readObservations(body, ndjson);
+        } catch (MalformedJsonException | IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    private static Result readObservations(InputStream body, boolean ndjson) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        List<Observation> observations = new ArrayList<>();
+
+        if (ndjson) {
+            reader.setStrictness(Strictness.LENIENT); // Lets one reader consume consecutive top-level values
+            while (reader.peek() != JsonToken.END_DOCUMENT) {
+                observations.add(readObservation(reader));
+            }
+            return new Result(true, observations);
+        }
+
+        JsonToken first = reader.peek();
+        boolean batch = first == JsonToken.BEGIN_ARRAY;
+        if (batch) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                observations.add(readObservation(reader));
+            }
+            reader.endArray();
+        } else if (first == JsonToken.BEGIN_OBJECT) {
+            observations.add(readObservation(reader));
+        } else {
+            throw new JsonSyntaxException("Expected a JSON object or array but found " + first);
+        }
+        if (reader.peek() != JsonToken.END_DOCUMENT) {
+            throw new JsonSyntaxException("Unexpected data after the JSON value");
+        }
+        return new Result(batch, observations);
+    }
+
+    private static Observation readObservation(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            JsonParser.parseReader(reader); // Consume it so the next entry can still be read
+            return new Observation(null, "entry is not a JSON object");
+        }
+
+        JsonObject json = new JsonObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            json.add(reader.nextName(), JsonParser.parseReader(reader));
+        }
+        reader.endObject();
+
+        JsonElement id = json.get("id");
+        if (id == null || !id.isJsonPrimitive() || id.getAsString().isBlank()) {
+            return new Observation(null, "missing id");
+        }
+        return new Observation(json, null);
+    }
+}
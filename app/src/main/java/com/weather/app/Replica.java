@@ -0,0 +1,171 @@
+package com.weather.app;
+
+import com.google.gson.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.BooleanSupplier;
+
+// Replica side of replication: follows a primary's ReplicationServer and applies its deltas to the local store.
+// Each delta is one local write event, stamped with this server's own Lamport clock after merging the primary's,
+// so ?since= cursors handed out by a replica only make sense on that replica. The primary clock applied so far
+// is kept in the cursor file once the applied changes are durable; after a restart the replica recovers its
+// store as usual and asks the primary for everything after that clock.
+public class Replica implements Closeable {
+
+    private static final long RECONNECT_MILLIS = 1000;
+
+    private final String host;
+    private final int port;
+    private final StationStore store;
+    private final ChangeIndex changeIndex;
+    private final LamportClock clock;
+    private final Path cursorFile;
+    private final BooleanSupplier durable; // Waits for the applied changes to reach the log
+    private final Thread follower;
+    private volatile Socket socket;
+    private volatile boolean closed;
+    private volatile long primaryClock;
+    private volatile long lagMillis;
+    private volatile long lastContact;
+
+    public Replica(String host, int port, StationStore store, ChangeIndex changeIndex, LamportClock clock,
+                   Path cursorFile, BooleanSupplier durable) {
+        this.host = host;
+        this.port = port;
+        this.store = store;
+        this.changeIndex = changeIndex;
+        this.clock = clock;
+        this.cursorFile = cursorFile;
+        this.durable = durable;
+        this.primaryClock = readCursor(cursorFile);
+        follower = new Thread(this::followLoop, "replica-follower");
+        follower.setDaemon(true);
+    }
+
+    public void start() {
+        follower.start();
+    }
+
+    public String primary() {
+        return host + ":" + port;
+    }
+
+    public boolean isConnected() {
+        return socket != null;
+    }
+
+    // Primary clock applied up to; -1 until the first delta after starting without a cursor
+    public long primaryClock() {
+        return primaryClock;
+    }
+
+    // How long the last applied delta took from leaving the primary to being applied here
+    public long lagMillis() {
+        return lagMillis;
+    }
+
+    // Milliseconds since the primary was last heard from; it sends at least once per heartbeat interval
+    public long sinceLastContact(long now) {
+        return lastContact == 0 ? -1 : now - lastContact;
+    }
+
+    private void followLoop() {
+        while (!closed) {
+            try (Socket connection = new Socket(host, port)) {
+                connection.setSoTimeout((int) ReplicationServer.HEARTBEAT_MILLIS * 5);
+                socket = connection;
+                BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+                Writer out = new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8);
+                out.write("SYNC " + primaryClock + "\n");
+                out.flush();
+
+                String line;
+                while ((line = in.readLine()) != null) {
+                    apply(JsonParser.parseString(line).getAsJsonObject());
+                }
+            } catch (IOException | JsonParseException | IllegalStateException e) {
+                if (!closed) {
+                    System.out.println("Lost primary " + primary() + ": " + e.getMessage());
+                }
+            } finally {
+                socket = null;
+            }
+            try {
+                Thread.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    void apply(JsonObject message) throws IOException {
+        long now = System.currentTimeMillis();
+        lastContact = now;
+        long deltaClock = message.get("clock").getAsLong();
+        JsonArray stations = message.getAsJsonArray("stations");
+        JsonArray removed = message.getAsJsonArray("removed");
+        boolean full = message.get("full").getAsBoolean();
+
+        if (full || stations.size() > 0 || removed.size() > 0) {
+            clock.update(deltaClock); // Receiving the delta is an event after everything it contains
+            long writeTime = changeIndex.begin();
+            try {
+                List<StationRecord> records = new ArrayList<>();
+                Set<String> ids = new HashSet<>();
+                for (JsonElement station : stations) {
+                    JsonObject json = station.getAsJsonObject();
+                    json.addProperty("lamport", writeTime);
+                    StationRecord record = new StationRecord(json);
+                    records.add(record);
+                    ids.add(record.getId());
+                }
+                store.putAll(records);
+                for (JsonElement id : removed) {
+                    store.remove(id.getAsString());
+                }
+                if (full) {
+                    store.removeIf(record -> !ids.contains(record.getId())); // Gone from the primary meanwhile
+                }
+            } finally {
+                changeIndex.end(writeTime);
+            }
+            if (!durable.getAsBoolean()) {
+                throw new IOException("Could not log the replicated changes");
+            }
+        }
+
+        if (deltaClock != primaryClock) {
+            primaryClock = deltaClock;
+            writeCursor(deltaClock);
+        }
+        lagMillis = Math.max(0, System.currentTimeMillis() - message.get("sent").getAsLong());
+    }
+
+    private void writeCursor(long value) throws IOException {
+        Path temp = cursorFile.resolveSibling(cursorFile.getFileName() + ".tmp");
+        Files.write(temp, Long.toString(value).getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, cursorFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // A missing or unreadable cursor asks the primary for everything
+    private static long readCursor(Path cursorFile) {
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(cursorFile), StandardCharsets.UTF_8).trim());
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        follower.interrupt();
+        Socket connection = socket;
+        if (connection != null) {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.weather.app;
+
+import com.google.gson.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Primary side of replication. Each replica connects over TCP and sends "SYNC <clock>", the primary clock it has
+// applied up to (-1 for none). It is then sent the store's changes in Lamport order, one JSON line per
+// delta from ChangeIndex: the stations written and ids removed (puts, expiries, evictions) since its clock.
+// A replica whose clock predates what the index remembers, e.g. after a primary restart, gets the whole store
+// with "full": true. Lines go out as soon as the store changes, and at least once per heartbeat interval, so
+// replicas can measure their lag and notice a dead primary.
+public class ReplicationServer implements Closeable {
+
+    static final long HEARTBEAT_MILLIS = 1000;
+
+    private final ServerSocket serverSocket;
+    private final StationStore store;
+    private final ChangeIndex changeIndex;
+    private final Subscriptions subscriptions;
+    private final Map<Socket, Long> replicas = new ConcurrentHashMap<>(); // Clock last sent to each replica
+    private final ExecutorService senders = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "replication-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ReplicationServer(int port, StationStore store, ChangeIndex changeIndex, Subscriptions subscriptions) throws IOException {
+        this.serverSocket = new ServerSocket(port);
+        this.store = store;
+        this.changeIndex = changeIndex;
+        this.subscriptions = subscriptions;
+        senders.execute(this::acceptLoop);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    // Remote address and last clock sent, per connected replica
+    public Map<String, Long> replicaClocks() {
+        Map<String, Long> clocks = new TreeMap<>();
+        for (Map.Entry<Socket, Long> replica : replicas.entrySet()) {
+            clocks.put(replica.getKey().getRemoteSocketAddress().toString(), replica.getValue());
+        }
+        return clocks;
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                senders.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.out.println("Error accepting replica: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket replica) {
+        try (Socket socket = replica;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+
+            String hello = in.readLine();
+            if (hello == null || !hello.startsWith("SYNC ")) return;
+            long clock = Long.parseLong(hello.substring(5).trim());
+            System.out.println("Replica " + socket.getRemoteSocketAddress() + " syncing from clock " + clock);
+            replicas.put(socket, clock);
+
+            long lastSent = 0;
+            while (true) {
+                long version = store.version();
+                ChangeIndex.Delta delta = changeIndex.since(clock, store);
+                long now = System.currentTimeMillis();
+                if (!delta.isEmpty() || now - lastSent >= HEARTBEAT_MILLIS) {
+                    out.write(toMessage(delta, now).toString());
+                    out.write('\n');
+                    out.flush(); // Fails once the replica has gone away
+                    clock = delta.clock;
+                    replicas.put(socket, clock);
+                    lastSent = now;
+                }
+                if (delta.isEmpty()) {
+                    subscriptions.awaitChange(version, HEARTBEAT_MILLIS);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Replica disconnected: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            replicas.remove(replica);
+        }
+    }
+
+    // {"clock": n, "full": false, "stations": [...], "removed": [ids], "sent": epoch millis}
+    static JsonObject toMessage(ChangeIndex.Delta delta, long sent) {
+        JsonObject message = new JsonObject();
+        message.addProperty("clock", delta.clock);
+        message.addProperty("full", delta.full);
+        JsonArray stations = new JsonArray();
+        for (StationRecord record : delta.stations) {
+            stations.add(record.json());
+        }
+        message.add("stations", stations);
+        JsonArray removed = new JsonArray();
+        for (String id : delta.removed) {
+            removed.add(id);
+        }
+        message.add("removed", removed);
+        message.addProperty("sent", sent);
+        return message;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket replica : replicas.keySet()) {
+            replica.close();
+        }
+        senders.shutdownNow();
+    }
+}
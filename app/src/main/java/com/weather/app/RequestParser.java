@@ -0,0 +1,77 @@
+package com.weather.app;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Incrementally assembles HTTP requests from the bytes handed over by a non-blocking channel
+public class RequestParser {
+
+    private static final int MAX_HEAD_BYTES = 16 * 1024;
+
+    private final String origin;
+    private final ByteArrayOutputStream head = new ByteArrayOutputStream();
+    private int lineLength;
+
+    private String requestLine;
+    private Map<String, String> headers;
+    private byte[] body;
+    private int bodyRead;
+
+    public RequestParser(String origin) {
+        this.origin = origin;
+    }
+
+    // Consumes bytes from the buffer until one full request is available; returns null if more input is needed.
+    // Any bytes belonging to a following request are left in the buffer.
+    public HttpRequest parse(ByteBuffer buffer) throws IOException {
+        while (headers == null && buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (head.size() == 0 && (b == '\r' || b == '\n')) {
+                continue; // Skip blank lines before the request line
+            }
+            if (b == '\n') {
+                if (lineLength == 0) {
+                    parseHead();
+                    break;
+                }
+                lineLength = 0;
+            } else if (b != '\r') {
+                lineLength++;
+            }
+            head.write(b);
+            if (head.size() > MAX_HEAD_BYTES) {
+                throw new IOException("Request head exceeds " + MAX_HEAD_BYTES + " bytes");
+            }
+        }
+
+        if (headers == null) return null;
+
+        int toCopy = Math.min(body.length - bodyRead, buffer.remaining());
+        buffer.get(body, bodyRead, toCopy);
+        bodyRead += toCopy;
+        if (bodyRead < body.length) return null;
+
+        HttpRequest request = HttpRequest.create(requestLine, headers, new ByteArrayInputStream(body), origin);
+        reset();
+        return request;
+    }
+
+    private void parseHead() throws IOException {
+        String[] lines = head.toString(StandardCharsets.ISO_8859_1).split("\r?\n");
+        requestLine = lines[0];
+        headers = HttpRequest.parseHeaders(Arrays.asList(lines).subList(1, lines.length));
+        body = new byte[HttpRequest.contentLength(headers)];
+        bodyRead = 0;
+    }
+
+    private void reset() {
+        head.reset();
+        lineLength = 0;
+        requestLine = null;
+        headers = null;
+        body = null;
+        bodyRead = 0;
+    }
+}
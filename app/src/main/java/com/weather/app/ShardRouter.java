@@ -0,0 +1,348 @@
+package com.weather.app;
+
+import com.google.gson.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Front end for aggregation servers run as shards. Stations are placed by consistent hashing of their id
+// (HashRing), so a PUT goes to the shard that owns its station and a batch is split by owner. Heartbeats go to
+// every shard, since one content server's stations are spread across all of them. GETs for one station go to
+// its owner; the full feed, filtered queries, /stats and /aggregate are gathered from every shard in parallel
+// and merged. The router holds no state of its own.
+public class ShardRouter {
+
+    private static final int DEFAULT_PORT = 4600;
+    private static final int IDLE_TIMEOUT_MILLIS = 15_000;
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    private final HashRing ring;
+    private final ConnectionPool connectionPool = new ConnectionPool(url -> new Socket(url.getHost(), url.getPort()));
+    private final ExecutorService fanOut = AggregationServer.newVirtualThreadExecutor();
+
+    public ShardRouter(HashRing ring) {
+        this.ring = ring;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java ShardRouter <port> <shard_url>[,<shard_url>...]");
+            return;
+        }
+        int port = DEFAULT_PORT;
+        try {
+            port = Integer.parseInt(args[0]);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid port number. Using default port: " + DEFAULT_PORT);
+        }
+        ShardRouter router = new ShardRouter(HashRing.parse(args[1]));
+        System.out.println("Routing to shards " + router.ring.shards());
+        router.run(port);
+    }
+
+    // Forwarding blocks on the shards, so each request gets its own (virtual, where available) thread
+    public void run(int port) throws IOException {
+        new NioServer("Shard Router", port, this::handleRequest, AggregationServer.newVirtualThreadExecutor(), IDLE_TIMEOUT_MILLIS).run();
+    }
+
+    HttpResponse handleRequest(HttpRequest request) {
+        HttpResponse response;
+        try {
+            if ("PUT".equalsIgnoreCase(request.getMethod())) {
+                response = routePut(request);
+            } else if ("DELETE".equalsIgnoreCase(request.getMethod())) {
+                response = routeDelete(request);
+            } else if ("GET".equalsIgnoreCase(request.getMethod())) {
+                response = routeGet(request);
+            } else {
+                response = new HttpResponse(400);
+            }
+        } catch (IOException e) {
+            System.out.println("Shard unavailable: " + e.getMessage());
+            response = new HttpResponse(502);
+        }
+        if (request.isKeepAlive()) {
+            response.keepAlive(IDLE_TIMEOUT_MILLIS / 1000);
+        }
+        return response;
+    }
+
+    private HttpResponse routePut(HttpRequest request) throws IOException {
+        byte[] body = request.getBody().readAllBytes();
+        if (body.length == 0) {
+            // A heartbeat keeps the sender's stations alive on every shard
+            List<HttpResponse> responses = sendAll(ring.shards(), forward(request, request.getPath(), body));
+            for (HttpResponse response : responses) {
+                if (response.getStatus() >= 300) {
+                    return withClock(relay(response), responses);
+                }
+            }
+            return withClock(new HttpResponse(204), responses);
+        }
+
+        ObservationReader.Result result;
+        try {
+            result = ObservationReader.read(new ByteArrayInputStream(body), isNdjson(request));
+        } catch (JsonParseException e) {
+            return new HttpResponse(400);
+        }
+        if (result.batch) {
+            return routeBatch(request, result.observations);
+        }
+        ObservationReader.Observation observation = result.observations.get(0);
+        if (observation.error != null) {
+            return new HttpResponse(400);
+        }
+        String owner = ring.owner(observation.json.get("id").getAsString());
+        return relay(send(owner, forward(request, request.getPath(), body)));
+    }
+
+    private HttpResponse routeDelete(HttpRequest request) throws IOException {
+        String id = request.getQueryParameters().get("id");
+        if (id == null) {
+            return new HttpResponse(400);
+        }
+        return relay(send(ring.owner(id), forward(request, request.getPath(), new byte[0])));
+    }
+
+    // Each shard gets a JSON array of its entries; the per-entry statuses are put back in the original order
+    private HttpResponse routeBatch(HttpRequest request, List<ObservationReader.Observation> entries) throws IOException {
+        JsonObject[] results = new JsonObject[entries.size()];
+        Map<String, List<Integer>> positions = new LinkedHashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            ObservationReader.Observation entry = entries.get(i);
+            if (entry.error != null) {
+                results[i] = new JsonObject();
+                results[i].addProperty("index", i);
+                results[i].addProperty("status", 400);
+                results[i].addProperty("error", entry.error);
+            } else {
+                positions.computeIfAbsent(ring.owner(entry.json.get("id").getAsString()), k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        List<String> shards = new ArrayList<>(positions.keySet());
+        List<Future<HttpResponse>> pending = new ArrayList<>();
+        for (String shard : shards) {
+            JsonArray batch = new JsonArray();
+            for (int position : positions.get(shard)) {
+                batch.add(entries.get(position).json);
+            }
+            byte[] body = batch.toString().getBytes(StandardCharsets.UTF_8);
+            pending.add(fanOut.submit(() -> send(shard, forward(request, request.getPath(), body, "application/json"))));
+        }
+
+        List<HttpResponse> responses = new ArrayList<>();
+        for (int s = 0; s < shards.size(); s++) {
+            List<Integer> shardPositions = positions.get(shards.get(s));
+            HttpResponse response = null;
+            try {
+                response = await(pending.get(s));
+                responses.add(response);
+            } catch (IOException e) {
+                System.out.println("Shard " + shards.get(s) + " unavailable: " + e.getMessage());
+            }
+            JsonArray statuses = response != null && response.getStatus() == 200
+                    ? JsonParser.parseString(new String(response.getBody(), StandardCharsets.UTF_8)).getAsJsonArray()
+                    : null;
+            for (int j = 0; j < shardPositions.size(); j++) {
+                int position = shardPositions.get(j);
+                if (statuses != null) {
+                    results[position] = statuses.get(j).getAsJsonObject();
+                } else {
+                    results[position] = new JsonObject();
+                    results[position].addProperty("id", entries.get(position).json.get("id").getAsString());
+                    results[position].addProperty("status", response == null ? 502 : response.getStatus());
+                }
+                results[position].addProperty("index", position);
+            }
+        }
+
+        JsonArray statuses = new JsonArray();
+        for (JsonObject result : results) {
+            statuses.add(result);
+        }
+        return withClock(json(200, statuses.toString()), responses);
+    }
+
+    private HttpResponse routeGet(HttpRequest request) throws IOException {
+        Map<String, String> parameters = request.getQueryParameters();
+        String route = request.getRoute();
+        if ("/stream".equals(route) || parameters.containsKey("since") || parameters.containsKey("wait")) {
+            return new HttpResponse(501); // Streams and cursors belong to one shard; use the shards directly
+        }
+        if ("/history".equals(route) || (parameters.containsKey("id") && !"/stats".equals(route) && !"/aggregate".equals(route))) {
+            String id = parameters.get("id");
+            if (id == null) {
+                return new HttpResponse(400);
+            }
+            return relay(send(ring.owner(id), forward(request, request.getPath(), new byte[0])));
+        }
+
+        List<HttpResponse> responses = sendAll(ring.shards(), forward(request, request.getPath(), new byte[0]));
+        for (HttpResponse response : responses) {
+            if (response.getStatus() != 200) {
+                return withClock(relay(response), responses);
+            }
+        }
+        if ("/stats".equals(route)) {
+            return withClock(mergeStats(responses), responses);
+        }
+        if ("/aggregate".equals(route)) {
+            return withClock(mergeAggregates(responses), responses);
+        }
+        JsonArray stations = new JsonArray();
+        for (HttpResponse response : responses) {
+            stations.addAll(parse(response).getAsJsonArray());
+        }
+        return withClock(json(200, GSON.toJson(stations)), responses);
+    }
+
+    // {"stations": total, "shards": {"host:port": that shard's /stats}}
+    private HttpResponse mergeStats(List<HttpResponse> responses) {
+        JsonObject shards = new JsonObject();
+        long stations = 0;
+        for (int i = 0; i < responses.size(); i++) {
+            JsonObject stats = parse(responses.get(i)).getAsJsonObject();
+            stations += stats.get("stations").getAsLong();
+            shards.add(ring.shards().get(i), stats);
+        }
+        JsonObject merged = new JsonObject();
+        merged.addProperty("stations", stations);
+        merged.add("shards", shards);
+        return json(200, merged.toString());
+    }
+
+    // Each group's statistics combine exactly: counts add, min and max carry over, averages are count-weighted
+    private HttpResponse mergeAggregates(List<HttpResponse> responses) {
+        JsonObject merged = null;
+        JsonObject groups = new JsonObject();
+        for (HttpResponse response : responses) {
+            JsonObject aggregate = parse(response).getAsJsonObject();
+            if (merged == null) {
+                merged = aggregate.deepCopy();
+            }
+            for (Map.Entry<String, JsonElement> entry : aggregate.getAsJsonObject("groups").entrySet()) {
+                JsonObject group = entry.getValue().getAsJsonObject();
+                JsonObject total = groups.getAsJsonObject(entry.getKey());
+                if (total == null) {
+                    groups.add(entry.getKey(), group.deepCopy());
+                    continue;
+                }
+                long count = total.get("count").getAsLong() + group.get("count").getAsLong();
+                double sum = total.get("avg").getAsDouble() * total.get("count").getAsLong()
+                        + group.get("avg").getAsDouble() * group.get("count").getAsLong();
+                total.addProperty("count", count);
+                total.addProperty("min", Math.min(total.get("min").getAsDouble(), group.get("min").getAsDouble()));
+                total.addProperty("max", Math.max(total.get("max").getAsDouble(), group.get("max").getAsDouble()));
+                total.addProperty("avg", sum / count);
+            }
+        }
+        merged.add("groups", groups);
+        return json(200, merged.toString());
+    }
+
+    private HttpResponse send(String shard, byte[] request) throws IOException {
+        return connectionPool.exchange(new URL("http://" + shard), Collections.singletonList(request)).get(0);
+    }
+
+    // Sends to every shard at once and waits for all the responses, in the order of the shards given
+    private List<HttpResponse> sendAll(List<String> shards, byte[] request) throws IOException {
+        List<Future<HttpResponse>> pending = new ArrayList<>();
+        for (String shard : shards) {
+            pending.add(fanOut.submit(() -> send(shard, request)));
+        }
+        List<HttpResponse> responses = new ArrayList<>();
+        for (Future<HttpResponse> response : pending) {
+            responses.add(await(response));
+        }
+        return responses;
+    }
+
+    private static HttpResponse await(Future<HttpResponse> response) throws IOException {
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a shard");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    private static byte[] forward(HttpRequest request, String path, byte[] body) {
+        return forward(request, path, body, request.getHeader("Content-Type"));
+    }
+
+    // The sender's clock, id and validators pass through so each shard orders and expires stations as if the
+    // content server had connected to it directly
+    private static byte[] forward(HttpRequest request, String path, byte[] body, String contentType) {
+        StringBuilder head = new StringBuilder();
+        head.append(request.getMethod()).append(' ').append(path).append(" HTTP/1.1\r\n");
+        for (String name : Arrays.asList("Lamport-Clock", "Content-Server-Id", "If-None-Match")) {
+            String value = request.getHeader(name);
+            if (value != null) {
+                head.append(name).append(": ").append(value).append("\r\n");
+            }
+        }
+        if (contentType != null) {
+            head.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+        if (body.length > 0 || "PUT".equalsIgnoreCase(request.getMethod())) {
+            head.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        head.append("Connection: keep-alive\r\n\r\n");
+        byte[] headBytes = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+        byte[] bytes = Arrays.copyOf(headBytes, headBytes.length + body.length);
+        System.arraycopy(body, 0, bytes, headBytes.length, body.length);
+        return bytes;
+    }
+
+    private static HttpResponse relay(HttpResponse shardResponse) {
+        HttpResponse response = new HttpResponse(shardResponse.getStatus());
+        for (String name : Arrays.asList("Content-Type", "ETag", "Lamport-Clock", "Allow")) {
+            String value = shardResponse.getHeader(name);
+            if (value != null) {
+                response.header(name, value);
+            }
+        }
+        if (shardResponse.getBody().length > 0) {
+            response.header("Content-Length", shardResponse.getBody().length).body(shardResponse.getBody());
+        }
+        return response;
+    }
+
+    // The highest clock of the shards involved, so the client's next request is ordered after all of them
+    private static HttpResponse withClock(HttpResponse response, List<HttpResponse> shardResponses) {
+        long clock = -1;
+        for (HttpResponse shardResponse : shardResponses) {
+            String value = shardResponse.getHeader("Lamport-Clock");
+            if (value != null) {
+                clock = Math.max(clock, Long.parseLong(value));
+            }
+        }
+        if (clock >= 0) {
+            response.header("Lamport-Clock", clock);
+        }
+        return response;
+    }
+
+    private static JsonElement parse(HttpResponse response) {
+        return JsonParser.parseString(new String(response.getBody(), StandardCharsets.UTF_8));
+    }
+
+    private static HttpResponse json(int status, String json) {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        return new HttpResponse(status)
+                .header("Content-Type", "application/json")
+                .header("Content-Length", body.length)
+                .body(body);
+    }
+
+    private static boolean isNdjson(HttpRequest request) {
+        String contentType = request.getHeader("Content-Type");
+        return contentType != null && contentType.toLowerCase().startsWith("application/x-ndjson");
+    }
+}
@@ -0,0 +1,237 @@
+package com.weather.app;
+
+import com.google.gson.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Binary snapshot of the station store, read through a memory mapping.
+//
+// Layout (big-endian):
+//   header: magic "WSNP" | int version | int record count | long index offset
+//   records: one encoded JsonObject per station (varint field count, then key + tagged value per field)
+//   index:  per station, in store order: varint id length | id bytes | varint record offset | varint record length | varint timestamp
+//
+// Loading only walks the index; each record stays in the mapping until it is first served.
+public class SnapshotFile {
+
+    private static final int MAGIC = 0x57534E50; // "WSNP"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 8;
+
+    private static final byte TAG_STRING = 0;
+    private static final byte TAG_LONG = 1;
+    private static final byte TAG_DOUBLE = 2;
+    private static final byte TAG_BOOLEAN = 3;
+    private static final byte TAG_NULL = 4;
+    private static final byte TAG_JSON = 5;
+
+    public static void write(Path path, Collection<StationRecord> records) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        for (StationRecord record : records) {
+            ByteBuffer encoded = record.encoded();
+            int offset = HEADER_BYTES + body.size();
+            int length = encoded.remaining();
+            body.write(encoded.array(), encoded.arrayOffset() + encoded.position(), length);
+
+            writeString(index, record.getId());
+            writeVarLong(index, offset);
+            writeVarLong(index, length);
+            writeVarLong(index, record.getTimestamp());
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putInt(records.size()).putLong(HEADER_BYTES + body.size());
+        header.flip();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header);
+            writeFully(channel, ByteBuffer.wrap(body.toByteArray()));
+            writeFully(channel, ByteBuffer.wrap(index.toByteArray()));
+            channel.force(true); // The snapshot must be durable before the log it replaces is deleted
+        }
+    }
+
+    public static List<StationRecord> read(Path path) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // Stays valid after close
+        }
+
+        if (mapped.remaining() < HEADER_BYTES || mapped.getInt(0) != MAGIC) {
+            throw new IOException("Not a weather snapshot: " + path);
+        }
+        if (mapped.getInt(4) != VERSION) {
+            throw new IOException("Unsupported snapshot version " + mapped.getInt(4) + " in " + path);
+        }
+        int count = mapped.getInt(8);
+        long indexOffset = mapped.getLong(12);
+
+        List<StationRecord> records = new ArrayList<>(count);
+        ByteBuffer index = mapped.duplicate();
+        index.position((int) indexOffset);
+        for (int i = 0; i < count; i++) {
+            String id = readString(index);
+            int offset = (int) readVarLong(index);
+            int length = (int) readVarLong(index);
+            long timestamp = readVarLong(index);
+
+            ByteBuffer slice = mapped.duplicate();
+            slice.position(offset).limit(offset + length);
+            records.add(new StationRecord(id, timestamp, slice.slice()));
+        }
+        return records;
+    }
+
+    public static ByteBuffer encode(JsonObject jsonObject) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarLong(out, jsonObject.size());
+        for (Map.Entry<String, JsonElement> field : jsonObject.entrySet()) {
+            writeString(out, field.getKey());
+            JsonElement value = field.getValue();
+            if (value.isJsonNull()) {
+                out.write(TAG_NULL);
+            } else if (value.isJsonPrimitive() && value.getAsJsonPrimitive().isString()) {
+                out.write(TAG_STRING);
+                writeString(out, value.getAsString());
+            } else if (value.isJsonPrimitive() && value.getAsJsonPrimitive().isBoolean()) {
+                out.write(TAG_BOOLEAN);
+                out.write(value.getAsBoolean() ? 1 : 0);
+            } else if (value.isJsonPrimitive() && isIntegral(value.getAsJsonPrimitive())) {
+                out.write(TAG_LONG);
+                writeVarLong(out, zigZag(value.getAsLong()));
+            } else if (value.isJsonPrimitive()) {
+                out.write(TAG_DOUBLE);
+                long bits = Double.doubleToLongBits(value.getAsDouble());
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    out.write((int) (bits >>> shift));
+                }
+            } else {
+                out.write(TAG_JSON);
+                writeString(out, value.toString());
+            }
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    public static JsonObject decode(ByteBuffer in) {
+        JsonObject jsonObject = new JsonObject();
+        long fields = readVarLong(in);
+        for (long i = 0; i < fields; i++) {
+            String key = readString(in);
+            byte tag = in.get();
+            switch (tag) {
+                case TAG_STRING: jsonObject.addProperty(key, readString(in)); break;
+                case TAG_LONG: jsonObject.addProperty(key, unZigZag(readVarLong(in))); break;
+                case TAG_DOUBLE: jsonObject.addProperty(key, in.getDouble()); break;
+                case TAG_BOOLEAN: jsonObject.addProperty(key, in.get() != 0); break;
+                case TAG_NULL: jsonObject.add(key, JsonNull.INSTANCE); break;
+                case TAG_JSON: jsonObject.add(key, JsonParser.parseString(readString(in))); break;
+                default: throw new IllegalStateException("Unknown field tag " + tag);
+            }
+        }
+        return jsonObject;
+    }
+
+    // The primitive values of the wanted fields, found without decoding the rest of the record; a field that is
+    // absent, null or not a primitive is left out
+    public static Map<String, JsonPrimitive> fields(ByteBuffer in, Collection<String> wanted) {
+        Map<String, JsonPrimitive> found = new HashMap<>();
+        long fields = readVarLong(in);
+        for (long i = 0; i < fields && found.size() < wanted.size(); i++) {
+            String key = readString(in);
+            byte tag = in.get();
+            boolean keep = wanted.contains(key);
+            switch (tag) {
+                case TAG_STRING:
+                    if (keep) found.put(key, new JsonPrimitive(readString(in)));
+                    else skipString(in);
+                    break;
+                case TAG_LONG:
+                    long value = unZigZag(readVarLong(in));
+                    if (keep) found.put(key, new JsonPrimitive(value));
+                    break;
+                case TAG_DOUBLE:
+                    double number = in.getDouble();
+                    if (keep) found.put(key, new JsonPrimitive(number));
+                    break;
+                case TAG_BOOLEAN:
+                    boolean flag = in.get() != 0;
+                    if (keep) found.put(key, new JsonPrimitive(flag));
+                    break;
+                case TAG_NULL: break;
+                case TAG_JSON: skipString(in); break;
+                default: throw new IllegalStateException("Unknown field tag " + tag);
+            }
+        }
+        return found;
+    }
+
+    private static boolean isIntegral(JsonPrimitive primitive) {
+        if (!primitive.isNumber()) return false;
+        try {
+            Long.parseLong(primitive.getAsString());
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = (int) readVarLong(in);
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void skipString(ByteBuffer in) {
+        int length = (int) readVarLong(in);
+        in.position(in.position() + length);
+    }
+
+    static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.weather.app;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+// Running statistics per group (all stations, or by state, time_zone or origin) for every numeric field,
+// maintained as a store listener so that a query costs O(groups) instead of a pass over the stations.
+// Two views are kept per group and field:
+//   - the current readings: count, sum and a sorted multiset for min/max; an update replaces the station's
+//     previous contribution, and removal (expiry, eviction) withdraws it
+//   - recent readings in a ring of BUCKET_MILLIS buckets covering MAX_WINDOW_MILLIS, for ?window= queries
+public class StationAggregates implements StationStore.Listener {
+
+    public static final String ALL = "all";
+    public static final List<String> DIMENSIONS = Collections.unmodifiableList(Arrays.asList(ALL, "state", "time_zone", "origin"));
+    static final long BUCKET_MILLIS = 10_000;
+    static final int BUCKETS = 360;
+    public static final long MAX_WINDOW_MILLIS = BUCKET_MILLIS * BUCKETS; // One hour
+
+    private final List<String> fields = WeatherData.numberFields();
+    private final Map<String, ConcurrentHashMap<String, Group>> groups = new HashMap<>();
+
+    public StationAggregates() {
+        for (String dimension : DIMENSIONS) {
+            groups.put(dimension, new ConcurrentHashMap<>());
+        }
+    }
+
+    public static class Result {
+        public final long count;
+        public final double sum;
+        public final double min;
+        public final double max;
+
+        Result(long count, double sum, double min, double max) {
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+        }
+
+        public double average() {
+            return sum / count;
+        }
+    }
+
+    @Override
+    public void stationPut(StationRecord record, StationRecord previous) {
+        if (previous != null) {
+            withdraw(previous);
+        }
+        double[] values = values(record);
+        for (String dimension : DIMENSIONS) {
+            String key = groupKey(dimension, record);
+            if (key == null) continue;
+            groups.get(dimension).compute(key, (k, group) -> {
+                Group target = group != null ? group : new Group();
+                target.add(record.getTimestamp(), values);
+                return target;
+            });
+        }
+    }
+
+    @Override
+    public void stationRemoved(StationRecord record) {
+        withdraw(record);
+    }
+
+    // Statistics per group for one field, over current readings (windowMillis <= 0) or readings received in
+    // the last windowMillis; groups with no readings are left out
+    public Map<String, Result> query(String field, String dimension, long windowMillis, long now) {
+        int fieldIndex = fields.indexOf(field);
+        ConcurrentHashMap<String, Group> byGroup = groups.get(dimension);
+        if (fieldIndex < 0 || byGroup == null || windowMillis > MAX_WINDOW_MILLIS) {
+            throw new IllegalArgumentException("Unsupported aggregate of " + field + " by " + dimension);
+        }
+        Map<String, Result> results = new TreeMap<>();
+        for (Map.Entry<String, Group> group : byGroup.entrySet()) {
+            Result result = windowMillis > 0
+                    ? group.getValue().window(fieldIndex, now - windowMillis, now)
+                    : group.getValue().current(fieldIndex);
+            if (result != null) {
+                results.put(group.getKey(), result);
+            }
+        }
+        return results;
+    }
+
+    // Drops groups that have no current stations and no readings left in the window ring
+    public void trim(long now) {
+        for (ConcurrentHashMap<String, Group> byGroup : groups.values()) {
+            for (String key : byGroup.keySet()) {
+                byGroup.computeIfPresent(key, (k, group) -> group.isIdle(now) ? null : group);
+            }
+        }
+    }
+
+    public int groups() {
+        int count = 0;
+        for (ConcurrentHashMap<String, Group> byGroup : groups.values()) {
+            count += byGroup.size();
+        }
+        return count;
+    }
+
+    private void withdraw(StationRecord record) {
+        double[] values = values(record);
+        for (String dimension : DIMENSIONS) {
+            String key = groupKey(dimension, record);
+            if (key == null) continue;
+            groups.get(dimension).computeIfPresent(key, (k, group) -> {
+                group.remove(values);
+                return group;
+            });
+        }
+    }
+
+    private double[] values(StationRecord record) {
+        return record.numbers(fields);
+    }
+
+    private static String groupKey(String dimension, StationRecord record) {
+        if (ALL.equals(dimension)) return ALL;
+        String value = record.text(dimension);
+        if (value == null) return null;
+        return "origin".equals(dimension) ? value : StationIndex.normalize(value);
+    }
+
+    // Updates run inside the group's map entry compute; queries read it concurrently, hence the monitor
+    private class Group {
+        private final Current[] current = new Current[fields.size()];
+        private final Bucket[][] buckets = new Bucket[fields.size()][];
+        private int stations;
+        private long lastReading;
+
+        synchronized void add(long timestamp, double[] values) {
+            stations++;
+            lastReading = Math.max(lastReading, timestamp);
+            for (int i = 0; i < values.length; i++) {
+                if (Double.isNaN(values[i])) continue;
+                if (current[i] == null) {
+                    current[i] = new Current();
+                    buckets[i] = new Bucket[BUCKETS];
+                }
+                current[i].add(values[i]);
+                long epoch = Math.floorDiv(timestamp, BUCKET_MILLIS);
+                int slot = (int) Math.floorMod(epoch, (long) BUCKETS);
+                Bucket bucket = buckets[i][slot];
+                if (bucket == null || bucket.epoch < epoch) {
+                    bucket = new Bucket(epoch);
+                    buckets[i][slot] = bucket;
+                } else if (bucket.epoch > epoch) {
+                    continue; // Older than the ring covers
+                }
+                bucket.add(values[i]);
+            }
+        }
+
+        synchronized void remove(double[] values) {
+            stations--;
+            for (int i = 0; i < values.length; i++) {
+                if (!Double.isNaN(values[i]) && current[i] != null) {
+                    current[i].remove(values[i]);
+                }
+            }
+        }
+
+        synchronized Result current(int field) {
+            Current stats = current[field];
+            if (stats == null || stats.count == 0) return null;
+            return new Result(stats.count, stats.sum(), stats.values.firstKey(), stats.values.lastKey());
+        }
+
+        // O(buckets) regardless of how many stations or readings the group has
+        synchronized Result window(int field, long from, long to) {
+            if (buckets[field] == null) return null;
+            long firstEpoch = Math.floorDiv(from, BUCKET_MILLIS);
+            long lastEpoch = Math.floorDiv(to, BUCKET_MILLIS);
+            long count = 0;
+            double sum = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (Bucket bucket : buckets[field]) {
+                if (bucket == null || bucket.epoch < firstEpoch || bucket.epoch > lastEpoch) continue;
+                count += bucket.count;
+                sum += bucket.sum;
+                min = Math.min(min, bucket.min);
+                max = Math.max(max, bucket.max);
+            }
+            return count == 0 ? null : new Result(count, sum, min, max);
+        }
+
+        synchronized boolean isIdle(long now) {
+            return stations <= 0 && lastReading < now - MAX_WINDOW_MILLIS;
+        }
+    }
+
+    // The running sum lives as long as the group and sees every update as an add and a remove, so it is
+    // compensated (Neumaier) rather than left to drift, and starts again from zero whenever the group empties
+    private static class Current {
+        long count;
+        private double sum;
+        private double compensation;
+        final TreeMap<Double, Integer> values = new TreeMap<>(); // Multiset for min and max under removal
+
+        void add(double value) {
+            count++;
+            accumulate(value);
+            values.merge(value, 1, Integer::sum);
+        }
+
+        void remove(double value) {
+            count--;
+            values.computeIfPresent(value, (v, n) -> n == 1 ? null : n - 1);
+            if (count == 0) {
+                sum = 0;
+                compensation = 0;
+            } else {
+                accumulate(-value);
+            }
+        }
+
+        double sum() {
+            return sum + compensation;
+        }
+
+        private void accumulate(double value) {
+            double total = sum + value;
+            if (Math.abs(sum) >= Math.abs(value)) {
+                compensation += (sum - total) + value;
+            } else {
+                compensation += (value - total) + sum;
+            }
+            sum = total;
+        }
+    }
+
+    private static class Bucket {
+        final long epoch;
+        long count;
+        double sum;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+
+        Bucket(long epoch) {
+            this.epoch = epoch;
+        }
+
+        void add(double value) {
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+    }
+}
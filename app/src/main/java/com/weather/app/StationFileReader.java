@@ -0,0 +1,104 @@
+package com.weather.app;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Reads key:value station files one record at a time through a FileChannel and a fixed buffer, so a file with
+// thousands of stations costs one record of memory. A record starts at its id: line; a second id: starts the
+// next record instead of overwriting the first. Lines before the first id: belong to the first record, so a
+// single-station file with its id further down reads as before. Within a record the last value of a key wins.
+public class StationFileReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private byte[] line = new byte[256]; // Grows to the longest line seen
+    private int lineLength;
+    private Map<String, String> started; // Opened by an id: line that ended the previous record
+
+    public StationFileReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        buffer.flip(); // Empty until the first read
+    }
+
+    // The next station, or null once the file has no more
+    public Map<String, String> next() throws IOException {
+        Map<String, String> record = started != null ? started : new LinkedHashMap<>();
+        started = null;
+        while (readLine()) {
+            int colon = indexOf(':');
+            if (colon < 0) continue;
+            String key = decode(0, colon);
+            String value = decode(colon + 1, lineLength);
+            if (key.equals("id") && record.containsKey("id")) {
+                started = new LinkedHashMap<>();
+                started.put(key, value);
+                return record;
+            }
+            record.put(key, value);
+        }
+        return record.isEmpty() ? null : record;
+    }
+
+    // Fills `line` with the next line, without its terminator; false at the end of the file
+    private boolean readLine() throws IOException {
+        lineLength = 0;
+        while (true) {
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                int read = channel.read(buffer);
+                buffer.flip();
+                if (read < 0) {
+                    return lineLength > 0; // A last line without a newline
+                }
+            }
+            byte[] bytes = buffer.array();
+            int start = buffer.position();
+            int end = start;
+            while (end < buffer.limit() && bytes[end] != '\n') {
+                end++;
+            }
+            append(bytes, start, end - start);
+            if (end < buffer.limit()) {
+                buffer.position(end + 1);
+                if (lineLength > 0 && line[lineLength - 1] == '\r') {
+                    lineLength--;
+                }
+                return true;
+            }
+            buffer.position(end);
+        }
+    }
+
+    private void append(byte[] bytes, int offset, int length) {
+        if (lineLength + length > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+        }
+        System.arraycopy(bytes, offset, line, lineLength, length);
+        lineLength += length;
+    }
+
+    private int indexOf(char c) {
+        for (int i = 0; i < lineLength; i++) {
+            if (line[i] == c) return i;
+        }
+        return -1;
+    }
+
+    // Trims like String.trim; multi-byte UTF-8 sequences never contain bytes at or below a space
+    private String decode(int start, int end) {
+        while (start < end && (line[start] & 0xff) <= ' ') start++;
+        while (end > start && (line[end - 1] & 0xff) <= ' ') end--;
+        return new String(line, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,245 @@
+package com.weather.app;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+// Watches station files through the platform's WatchService and hands each station's parsed reading to the sink
+// only when it changed. One thread waits for events; parsing runs on a small scheduler passed in by the
+// content server, so hundreds of files cost a few threads. A burst of events for one file (feeds often truncate
+// and then write) is reparsed once, after a short settle delay. A file whose size and modification time are
+// unchanged is not read again. A changed file is streamed one station at a time, and a station whose parsed
+// reading hashes the same as last time is not uploaded, so editing one station of a large file sends just that one.
+// A station that leaves its file, or whose file is deleted, is handed over as removed unless another watched file
+// still has it.
+public class StationFileWatcher implements Closeable {
+
+    public interface Sink {
+        // station is null once the station is gone
+        void changed(Path file, String stationId, Map<String, String> station) throws InterruptedException;
+    }
+
+    private static final long SETTLE_MILLIS = 100;
+
+    private static class FileState {
+        final FileTime modified;
+        final long size;
+        final Map<String, byte[]> hashes; // By station id
+
+        FileState(FileTime modified, long size, Map<String, byte[]> hashes) {
+            this.modified = modified;
+            this.size = size;
+            this.hashes = hashes;
+        }
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final Sink sink;
+    private final WatchService watchService;
+    private final Set<Path> watchedDirectories = new HashSet<>(); // Every file in these
+    private final Set<Path> watchedFiles = new HashSet<>(); // Files named on their own
+    private final Map<Path, FileState> states = new ConcurrentHashMap<>();
+    private final Set<Path> scheduled = ConcurrentHashMap.newKeySet();
+    // One reparse per file at a time, so a reading blocked on a full queue cannot overtake a newer one
+    private final Map<Path, Object> fileLocks = new ConcurrentHashMap<>();
+    private final AtomicLong uploaded = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+
+    public StationFileWatcher(List<String> paths, ScheduledExecutorService scheduler, Sink sink) throws IOException {
+        this.scheduler = scheduler;
+        this.sink = sink;
+        watchService = FileSystems.getDefault().newWatchService();
+        for (String path : paths) {
+            Path target = Paths.get(path).toAbsolutePath().normalize();
+            if (Files.isDirectory(target)) {
+                watchedDirectories.add(target);
+                target.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            } else {
+                watchedFiles.add(target);
+                target.getParent().register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            }
+        }
+    }
+
+    // Uploads every file once, then follows changes until closed
+    public void run() {
+        rescan();
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path directory = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        rescan(); // Events were lost; the attribute check keeps this cheap
+                        continue;
+                    }
+                    Path file = directory.resolve((Path) event.context());
+                    if (isWatched(file)) {
+                        schedule(file);
+                    }
+                }
+                key.reset();
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Closed
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Stations handed to the sink
+    public long uploaded() {
+        return uploaded.get();
+    }
+
+    // Stations reparsed with the same reading as their last upload
+    public long unchanged() {
+        return unchanged.get();
+    }
+
+    // Stations handed to the sink as gone
+    public long removed() {
+        return removed.get();
+    }
+
+    private boolean isWatched(Path file) {
+        return watchedFiles.contains(file) || watchedDirectories.contains(file.getParent());
+    }
+
+    private void rescan() {
+        for (Path file : watchedFiles) {
+            schedule(file);
+        }
+        for (Path file : states.keySet()) {
+            schedule(file); // Including files deleted while their events were lost
+        }
+        for (Path directory : watchedDirectories) {
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    schedule(entry);
+                }
+            } catch (IOException e) {
+                System.out.println("Cannot list " + directory + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void schedule(Path file) {
+        if (scheduled.add(file)) {
+            scheduler.schedule(() -> reparse(file), SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void reparse(Path file) {
+        synchronized (fileLocks.computeIfAbsent(file, f -> new Object())) {
+            scheduled.remove(file); // An event from here on schedules another look
+            reparseLocked(file);
+        }
+    }
+
+    private void reparseLocked(Path file) {
+        FileState previous = states.get(file);
+        Map<String, byte[]> hashes = new HashMap<>();
+        try {
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                // The heartbeats would keep its stations alive on the aggregation server, so they are removed
+                FileState gone = states.remove(file);
+                if (gone != null) {
+                    retire(file, gone.hashes.keySet());
+                }
+                return;
+            }
+            if (!attributes.isRegularFile()) return;
+            if (previous != null && attributes.lastModifiedTime().equals(previous.modified)
+                    && previous.size == attributes.size()) {
+                return;
+            }
+
+            try (StationFileReader reader = new StationFileReader(file)) {
+                for (Map<String, String> station = reader.next(); station != null; station = reader.next()) {
+                    String id = station.get("id");
+                    if (id == null) {
+                        System.out.println("Skipping a station without an id in " + file);
+                        continue;
+                    }
+                    byte[] hash = hash(station);
+                    hashes.put(id, hash);
+                    if (previous != null && Arrays.equals(previous.hashes.get(id), hash)) {
+                        unchanged.incrementAndGet();
+                        continue;
+                    }
+                    sink.changed(file, id, station); // May wait while the upload queue is full
+                    uploaded.incrementAndGet();
+                }
+            }
+            states.put(file, new FileState(attributes.lastModifiedTime(), attributes.size(), hashes));
+            if (previous != null) {
+                Set<String> gone = new HashSet<>(previous.hashes.keySet());
+                gone.removeAll(hashes.keySet());
+                retire(file, gone);
+            }
+        } catch (IOException e) {
+            System.out.println("Cannot read " + file + ": " + e.getMessage());
+            // Read it again on its next event, still knowing every station it has published
+            Map<String, byte[]> published = new HashMap<>();
+            if (previous != null) {
+                published.putAll(previous.hashes);
+            }
+            published.putAll(hashes);
+            states.put(file, new FileState(null, -1, published));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void retire(Path file, Set<String> ids) throws InterruptedException {
+        for (String id : ids) {
+            if (!publishedElsewhere(file, id)) {
+                sink.changed(file, id, null);
+                removed.incrementAndGet();
+            }
+        }
+    }
+
+    // A station that moved to another watched file stays
+    private boolean publishedElsewhere(Path file, String id) {
+        for (Map.Entry<Path, FileState> state : states.entrySet()) {
+            if (!state.getKey().equals(file) && state.getValue().hashes.containsKey(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Independent of line order and whitespace, which do not change what is uploaded
+    private static byte[] hash(Map<String, String> station) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Map.Entry<String, String> field : new TreeMap<>(station).entrySet()) {
+                digest.update(field.getKey().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(field.getValue().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every JVM provides SHA-256
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
@@ -0,0 +1,309 @@
+package com.weather.app;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Recent readings of every station, kept after the station itself has expired from the store. Each station
+// has a ring of blocks; a block stores up to BLOCK_SAMPLES samples column by column (one byte column for the
+// timestamps, one per numeric field), with every value written as a varint delta from the previous one. A
+// block is self-contained, so the oldest ones can be dropped whole once they fall out of the retention window.
+// Past maxStations, the stations heard from least recently are dropped, a tenth at a time.
+public class StationHistory implements StationStore.Listener {
+
+    static final int BLOCK_SAMPLES = 128;
+    private static final int ABSENT = 0xFF; // Scale byte of a missing value
+    private static final int RAW = 0xFE; // Scale byte of a value written as raw double bits
+    private static final int MAX_SCALE = 6; // Up to six decimal places are stored as scaled integers
+    private static final double[] POWERS = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000};
+
+    private final long retentionMillis;
+    private final int maxSamples;
+    private final int maxStations;
+    private final List<String> fields = WeatherData.numberFields();
+    private final ConcurrentHashMap<String, Series> stations = new ConcurrentHashMap<>();
+    private final Object evictionLock = new Object();
+
+    public StationHistory(long retentionMillis, int maxSamples) {
+        this(retentionMillis, maxSamples, Integer.MAX_VALUE);
+    }
+
+    public StationHistory(long retentionMillis, int maxSamples, int maxStations) {
+        this.retentionMillis = retentionMillis;
+        this.maxSamples = maxSamples;
+        this.maxStations = maxStations;
+    }
+
+    // Runs inside the station's critical section, so one station's samples arrive in order
+    @Override
+    public void stationPut(StationRecord record, StationRecord previous) {
+        double[] values = record.numbers(fields);
+        long lamport = record.getLamportTime();
+        stations.compute(record.getId(), (id, series) -> {
+            Series target = series != null ? series : new Series();
+            target.append(record.getTimestamp(), lamport, values); // Under the map's lock, so trim cannot drop it meanwhile
+            return target;
+        });
+        evictOverflow();
+    }
+
+    public boolean contains(String id) {
+        return stations.containsKey(id);
+    }
+
+    // Samples with from <= timestamp <= to, oldest first; an empty result if the station is unknown
+    public Samples range(String id, long from, long to) {
+        Series series = stations.get(id);
+        Samples samples = new Samples(fields);
+        if (series != null) {
+            series.read(from, to, samples);
+        }
+        return samples;
+    }
+
+    // Drops blocks that ended before the retention window and stations left with nothing
+    public void trim(long now) {
+        long cutoff = now - retentionMillis;
+        for (Map.Entry<String, Series> station : stations.entrySet()) {
+            stations.computeIfPresent(station.getKey(), (id, series) -> series.trimBefore(cutoff) ? series : null);
+        }
+    }
+
+    private void evictOverflow() {
+        if (stations.size() <= maxStations) return;
+        synchronized (evictionLock) {
+            if (stations.size() <= maxStations) return;
+            List<Map.Entry<String, Long>> heard = new ArrayList<>();
+            for (Map.Entry<String, Series> station : stations.entrySet()) {
+                heard.add(new AbstractMap.SimpleEntry<>(station.getKey(), station.getValue().lastTimestamp()));
+            }
+            heard.sort(Map.Entry.comparingByValue());
+            int excess = stations.size() - (maxStations - maxStations / 10);
+            for (int i = 0; i < excess && i < heard.size(); i++) {
+                long seen = heard.get(i).getValue();
+                // Kept if a reading arrived since the scan
+                stations.computeIfPresent(heard.get(i).getKey(), (id, series) -> series.lastTimestamp() > seen ? series : null);
+            }
+        }
+    }
+
+    public int stations() {
+        return stations.size();
+    }
+
+    public long encodedBytes() {
+        long bytes = 0;
+        for (Series series : stations.values()) {
+            bytes += series.encodedBytes();
+        }
+        return bytes;
+    }
+
+    public static class Samples {
+        public final List<String> fields;
+        public final List<Long> timestamps = new ArrayList<>();
+        public final List<double[]> values = new ArrayList<>();
+
+        Samples(List<String> fields) {
+            this.fields = fields;
+        }
+
+        public int size() {
+            return timestamps.size();
+        }
+    }
+
+    private class Series {
+        private final ArrayDeque<Block> blocks = new ArrayDeque<>();
+        private int samples;
+        private long lastLamport;
+
+        // Two readings in the same millisecond are told apart by their Lamport time
+        synchronized void append(long timestamp, long lamport, double[] values) {
+            Block last = blocks.peekLast();
+            if (last != null && (timestamp < last.lastTimestamp
+                    || timestamp == last.lastTimestamp && lamport <= lastLamport)) {
+                return; // Already recorded, e.g. when the log is replayed at startup
+            }
+            if (last == null || last.count == BLOCK_SAMPLES) {
+                last = new Block(fields.size());
+                blocks.addLast(last);
+            }
+            last.append(timestamp, values);
+            lastLamport = lamport;
+            samples++;
+            // Whole blocks go, and only while at least maxSamples would remain
+            while (blocks.size() > 1 && samples - blocks.peekFirst().count >= maxSamples) {
+                samples -= blocks.removeFirst().count;
+            }
+        }
+
+        synchronized long lastTimestamp() {
+            return blocks.isEmpty() ? Long.MIN_VALUE : blocks.peekLast().lastTimestamp;
+        }
+
+        synchronized void read(long from, long to, Samples out) {
+            for (Block block : blocks) {
+                if (block.lastTimestamp < from) continue;
+                if (block.firstTimestamp > to) break;
+                block.read(from, to, out);
+            }
+        }
+
+        // Returns false once the station has no samples left
+        synchronized boolean trimBefore(long cutoff) {
+            while (!blocks.isEmpty() && blocks.peekFirst().lastTimestamp < cutoff) {
+                samples -= blocks.removeFirst().count;
+            }
+            return !blocks.isEmpty();
+        }
+
+        synchronized long encodedBytes() {
+            long bytes = 0;
+            for (Block block : blocks) {
+                bytes += block.encodedBytes();
+            }
+            return bytes;
+        }
+    }
+
+    private static class Block {
+        final Column timestamps = new Column();
+        final Column[] columns; // Null until the field first appears, so absent fields cost nothing
+        final int[] firstSample;
+        long firstTimestamp;
+        long lastTimestamp;
+        long lastDelta;
+        int count;
+
+        Block(int fieldCount) {
+            columns = new Column[fieldCount];
+            firstSample = new int[fieldCount];
+        }
+
+        // Timestamps are stored as delta-of-delta, so readings at a steady interval take one byte each
+        void append(long timestamp, double[] values) {
+            if (count == 0) {
+                firstTimestamp = timestamp;
+                SnapshotFile.writeVarLong(timestamps, SnapshotFile.zigZag(timestamp));
+            } else {
+                long delta = timestamp - lastTimestamp;
+                SnapshotFile.writeVarLong(timestamps, SnapshotFile.zigZag(delta - lastDelta));
+                lastDelta = delta;
+            }
+            lastTimestamp = timestamp;
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i] == null) {
+                    if (Double.isNaN(values[i])) continue;
+                    columns[i] = new Column();
+                    firstSample[i] = count;
+                }
+                columns[i].writeValue(values[i]);
+            }
+            count++;
+        }
+
+        void read(long from, long to, Samples out) {
+            ByteBuffer timestampIn = timestamps.view();
+            ByteBuffer[] valueIn = new ByteBuffer[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                valueIn[i] = columns[i] == null ? null : columns[i].view();
+            }
+            long timestamp = 0;
+            long delta = 0;
+            long[] previous = new long[columns.length];
+            int[] previousScale = new int[columns.length];
+            Arrays.fill(previousScale, ABSENT);
+            for (int n = 0; n < count; n++) {
+                long encoded = SnapshotFile.unZigZag(SnapshotFile.readVarLong(timestampIn));
+                if (n == 0) {
+                    timestamp = encoded;
+                } else {
+                    delta += encoded;
+                    timestamp += delta;
+                }
+                double[] values = new double[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    if (valueIn[i] == null || n < firstSample[i]) {
+                        values[i] = Double.NaN;
+                        continue;
+                    }
+                    int scale = valueIn[i].get() & 0xFF;
+                    if (scale == ABSENT) {
+                        values[i] = Double.NaN;
+                    } else if (scale == RAW) {
+                        values[i] = Double.longBitsToDouble(valueIn[i].getLong());
+                    } else {
+                        long scaled = SnapshotFile.unZigZag(SnapshotFile.readVarLong(valueIn[i]));
+                        if (scale == previousScale[i]) {
+                            scaled += previous[i];
+                        }
+                        previous[i] = scaled;
+                        previousScale[i] = scale;
+                        values[i] = scaled / POWERS[scale];
+                    }
+                }
+                if (timestamp >= from && timestamp <= to) {
+                    out.timestamps.add(timestamp);
+                    out.values.add(values);
+                }
+            }
+        }
+
+        long encodedBytes() {
+            long bytes = timestamps.size();
+            for (Column column : columns) {
+                if (column != null) bytes += column.size();
+            }
+            return bytes;
+        }
+    }
+
+    // One column of a block. A value is written as a scale byte (decimal places) followed by the zigzag varint
+    // of its scaled integer, as a delta when the previous value had the same scale; readings that move by a
+    // few tenths take two bytes instead of eight.
+    private static class Column extends ByteArrayOutputStream {
+        private long previous;
+        private int previousScale = ABSENT;
+
+        Column() {
+            super(16);
+        }
+
+        void writeValue(double value) {
+            if (Double.isNaN(value)) {
+                write(ABSENT);
+                return;
+            }
+            int scale = scaleOf(value);
+            if (scale < 0) {
+                write(RAW);
+                long bits = Double.doubleToRawLongBits(value);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    write((int) (bits >>> shift));
+                }
+                return;
+            }
+            long scaled = Math.round(value * POWERS[scale]);
+            write(scale);
+            SnapshotFile.writeVarLong(this, SnapshotFile.zigZag(scale == previousScale ? scaled - previous : scaled));
+            previous = scaled;
+            previousScale = scale;
+        }
+
+        ByteBuffer view() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+        // The fewest decimal places that reproduce the value exactly, or -1 if it needs raw bits
+        private static int scaleOf(double value) {
+            for (int scale = 0; scale <= MAX_SCALE; scale++) {
+                double scaled = value * POWERS[scale];
+                if (Math.abs(scaled) >= 1L << 52) return -1;
+                if (Math.round(scaled) / POWERS[scale] == value) return scale;
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.weather.app;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+// Secondary indexes over the store for filtered GETs: exact match on state and time_zone, and a
+// latitude-ordered set for bounding boxes. Kept up to date as a store listener, so each update runs inside
+// the station's critical section and the index never sees one station's changes out of order.
+public class StationIndex implements StationStore.Listener {
+
+    private final ConcurrentHashMap<String, Set<String>> byState = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> byTimeZone = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<LatitudeEntry> byLatitude = new ConcurrentSkipListSet<>();
+
+    @Override
+    public void stationPut(StationRecord record, StationRecord previous) {
+        if (previous != null) {
+            stationRemoved(previous);
+        }
+        add(byState, key(record, "state"), record.getId());
+        add(byTimeZone, key(record, "time_zone"), record.getId());
+        Double lat = record.number("lat");
+        if (lat != null) {
+            byLatitude.add(new LatitudeEntry(lat, record.getId()));
+        }
+    }
+
+    @Override
+    public void stationRemoved(StationRecord record) {
+        remove(byState, key(record, "state"), record.getId());
+        remove(byTimeZone, key(record, "time_zone"), record.getId());
+        Double lat = record.number("lat");
+        if (lat != null) {
+            byLatitude.remove(new LatitudeEntry(lat, record.getId()));
+        }
+    }
+
+    public Set<String> withState(String state) {
+        return byState.getOrDefault(normalize(state), Collections.emptySet());
+    }
+
+    public Set<String> withTimeZone(String timeZone) {
+        return byTimeZone.getOrDefault(normalize(timeZone), Collections.emptySet());
+    }
+
+    public List<String> withLatitudeBetween(double minLat, double maxLat) {
+        List<String> ids = new ArrayList<>();
+        if (minLat > maxLat) return ids;
+        for (LatitudeEntry entry : byLatitude.subSet(new LatitudeEntry(minLat, ""), true,
+                new LatitudeEntry(Math.nextUp(maxLat), ""), false)) {
+            ids.add(entry.id);
+        }
+        return ids;
+    }
+
+    static String normalize(String value) {
+        return value.trim().toUpperCase(Locale.ROOT);
+    }
+
+    private static String key(StationRecord record, String field) {
+        String value = record.text(field);
+        return value == null ? null : normalize(value);
+    }
+
+    private static void add(ConcurrentHashMap<String, Set<String>> index, String key, String id) {
+        if (key == null) return;
+        index.compute(key, (k, ids) -> {
+            Set<String> set = ids != null ? ids : ConcurrentHashMap.newKeySet();
+            set.add(id);
+            return set;
+        });
+    }
+
+    private static void remove(ConcurrentHashMap<String, Set<String>> index, String key, String id) {
+        if (key == null) return;
+        index.computeIfPresent(key, (k, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    private static class LatitudeEntry implements Comparable<LatitudeEntry> {
+        final double lat;
+        final String id;
+
+        LatitudeEntry(double lat, String id) {
+            this.lat = lat;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(LatitudeEntry other) {
+            int byLat = Double.compare(lat, other.lat);
+            return byLat != 0 ? byLat : id.compareTo(other.id);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.weather.app;
+
+import java.util.*;
+
+// Filters accepted by GET: ?id=, ?state=, ?time_zone= and a lat/lon box (minLat, maxLat, minLon, maxLon)
+public class StationQuery {
+
+    private final String id;
+    private final String state;
+    private final String timeZone;
+    private final double minLat;
+    private final double maxLat;
+    private final double minLon;
+    private final double maxLon;
+    private final boolean hasBox;
+
+    public StationQuery(Map<String, String> parameters) {
+        this.id = parameters.get("id");
+        this.state = parameters.get("state");
+        this.timeZone = parameters.get("time_zone");
+        this.minLat = bound(parameters, "minLat", Double.NEGATIVE_INFINITY);
+        this.maxLat = bound(parameters, "maxLat", Double.POSITIVE_INFINITY);
+        this.minLon = bound(parameters, "minLon", Double.NEGATIVE_INFINITY);
+        this.maxLon = bound(parameters, "maxLon", Double.POSITIVE_INFINITY);
+        this.hasBox = parameters.containsKey("minLat") || parameters.containsKey("maxLat")
+                || parameters.containsKey("minLon") || parameters.containsKey("maxLon");
+    }
+
+    public boolean isEmpty() {
+        return id == null && state == null && timeZone == null && !hasBox;
+    }
+
+    public boolean isSingleStation() {
+        return id != null;
+    }
+
+    // Starts from the most selective structure available (direct lookup, then an index) and checks the
+    // remaining conditions on those candidates only
+    public List<StationRecord> run(StationStore store, StationIndex index) {
+        Collection<String> candidates;
+        if (id != null) {
+            candidates = Collections.singletonList(id);
+        } else {
+            candidates = null;
+            if (state != null) {
+                candidates = smaller(candidates, index.withState(state));
+            }
+            if (timeZone != null) {
+                candidates = smaller(candidates, index.withTimeZone(timeZone));
+            }
+            if (hasBox && (minLat != Double.NEGATIVE_INFINITY || maxLat != Double.POSITIVE_INFINITY)) {
+                candidates = smaller(candidates, index.withLatitudeBetween(minLat, maxLat));
+            }
+        }
+
+        List<StationRecord> results = new ArrayList<>();
+        if (candidates == null) {
+            for (StationRecord record : store.snapshot()) {
+                if (matches(record)) results.add(record);
+            }
+            return results;
+        }
+        for (String candidate : candidates) {
+            StationRecord record = store.get(candidate);
+            if (record != null && matches(record)) {
+                results.add(record);
+            }
+        }
+        return results;
+    }
+
+    public boolean matches(StationRecord record) {
+        if (id != null && !id.equals(record.getId())) return false;
+        WeatherData data = record.data();
+        if (state != null && !equalsField(data, "state", state)) return false;
+        if (timeZone != null && !equalsField(data, "time_zone", timeZone)) return false;
+        if (hasBox) {
+            Double lat = data.number("lat");
+            Double lon = data.number("lon");
+            if (lat == null || lon == null) return false;
+            if (lat < minLat || lat > maxLat || lon < minLon || lon > maxLon) return false;
+        }
+        return true;
+    }
+
+    private static boolean equalsField(WeatherData data, String field, String expected) {
+        String value = data.text(field);
+        return value != null && StationIndex.normalize(value).equals(StationIndex.normalize(expected));
+    }
+
+    private static Collection<String> smaller(Collection<String> current, Collection<String> candidate) {
+        return current == null || candidate.size() < current.size() ? candidate : current;
+    }
+
+    private static double bound(Map<String, String> parameters, String name, double fallback) {
+        String value = parameters.get(name);
+        if (value == null) return fallback;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+    }
+}
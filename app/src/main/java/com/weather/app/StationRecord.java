@@ -0,0 +1,160 @@
+package com.weather.app;
+
+import com.google.gson.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+// One stored station, held in the compact WeatherData form. Records loaded from a snapshot keep their encoded
+// bytes (usually a slice of the memory-mapped file) and are only decoded the first time they are needed. The field
+// accessors below read single fields straight from those bytes, so the indexes built at startup do not decode
+// every record of the snapshot.
+public class StationRecord {
+
+    private static final long ENCODED_EXPANSION = 2; // Heap bytes per encoded byte once decoded, roughly
+
+    // Order of versions of one station: the sender's Lamport clock, then its server id to break ties. Versions
+    // that compare equal are the same write sent twice.
+    public static final Comparator<StationRecord> LAMPORT_ORDER = Comparator
+            .comparingLong((StationRecord record) -> record.getOriginClock())
+            .thenComparing(StationRecord::getOrigin, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private final String id;
+    private final long timestamp;
+    private WeatherData data;
+    private ByteBuffer encoded;
+    private long estimatedBytes;
+
+    public StationRecord(JsonObject json) {
+        this(WeatherData.fromJson(json));
+    }
+
+    public StationRecord(WeatherData data) {
+        if (data.getId() == null) {
+            throw new IllegalArgumentException("Station record without an id");
+        }
+        this.id = data.getId();
+        this.timestamp = data.getLastUpdated();
+        this.data = data;
+    }
+
+    StationRecord(String id, long timestamp, ByteBuffer encoded) {
+        this.id = id;
+        this.timestamp = timestamp;
+        this.encoded = encoded;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    // The content server that sent this version, or null for records that predate origins
+    public String getOrigin() {
+        return text("origin");
+    }
+
+    // Same as WeatherData.getLamportTime
+    public long getLamportTime() {
+        Map<String, JsonPrimitive> fields = encodedFields(Collections.singleton("lamport"));
+        return fields != null ? clock(fields.get("lamport")) : data().getLamportTime();
+    }
+
+    // Same as WeatherData.getOriginClock
+    public long getOriginClock() {
+        Map<String, JsonPrimitive> fields = encodedFields(Collections.singleton("origin_clock"));
+        return fields != null ? clock(fields.get("origin_clock")) : data().getOriginClock();
+    }
+
+    // Same as WeatherData.text
+    public String text(String field) {
+        if ("id".equals(field)) return id;
+        Map<String, JsonPrimitive> fields = encodedFields(Collections.singleton(field));
+        if (fields == null) return data().text(field);
+        JsonPrimitive value = fields.get(field);
+        return value != null ? value.getAsString() : null;
+    }
+
+    // Same as WeatherData.number
+    public Double number(String field) {
+        Map<String, JsonPrimitive> fields = encodedFields(Collections.singleton(field));
+        return fields != null ? number(fields.get(field)) : data().number(field);
+    }
+
+    // The fields as numbers in one pass, NaN where a field is absent or not numeric
+    public double[] numbers(List<String> fields) {
+        Map<String, JsonPrimitive> encodedFields = encodedFields(fields);
+        WeatherData decoded = encodedFields == null ? data() : null;
+        double[] values = new double[fields.size()];
+        for (int i = 0; i < values.length; i++) {
+            Double value = decoded != null ? decoded.number(fields.get(i)) : number(encodedFields.get(fields.get(i)));
+            values[i] = value == null ? Double.NaN : value;
+        }
+        return values;
+    }
+
+    public synchronized WeatherData data() {
+        if (data == null) {
+            data = WeatherData.fromJson(SnapshotFile.decode(encoded.duplicate()));
+            encoded = null; // Release the mapped slice
+        }
+        return data;
+    }
+
+    // A new JSON tree of the record, for the log and the snapshot encoder
+    public JsonObject json() {
+        return data().toJson();
+    }
+
+    // Rough heap footprint, charged against the store's byte budget; fixed once computed so that the
+    // store can subtract exactly what it added
+    public synchronized long estimatedBytes() {
+        if (estimatedBytes == 0) {
+            estimatedBytes = data != null ? data.estimatedBytes() : encoded.remaining() * ENCODED_EXPANSION;
+        }
+        return estimatedBytes;
+    }
+
+    // The wanted fields read from the encoded bytes, or null once the record is decoded and the WeatherData
+    // should be asked instead
+    private synchronized Map<String, JsonPrimitive> encodedFields(Collection<String> fields) {
+        return data != null ? null : SnapshotFile.fields(encoded.duplicate(), fields);
+    }
+
+    // A positive whole number, as WeatherData accepts for its clocks
+    private static long clock(JsonPrimitive value) {
+        if (value == null || !value.isNumber()) return 0;
+        try {
+            long clock = Long.parseLong(value.getAsString());
+            return clock > 0 ? clock : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static Double number(JsonPrimitive value) {
+        if (value == null) return null;
+        if (value.isNumber()) return value.getAsDouble();
+        try {
+            return Double.parseDouble(value.getAsString().trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public synchronized boolean isMaterialized() {
+        return data != null;
+    }
+
+    // Heap copy of the encoded form; records never materialized are copied without decoding
+    synchronized ByteBuffer encoded() {
+        if (encoded == null) {
+            return SnapshotFile.encode(data.toJson());
+        }
+        ByteBuffer copy = ByteBuffer.allocate(encoded.remaining());
+        copy.put(encoded.duplicate()).flip();
+        return copy;
+    }
+}
@@ -0,0 +1,315 @@
+package com.weather.app;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+// Concurrent station store. Each station is updated atomically inside ConcurrentHashMap.compute, so writers
+// to different stations never share a lock; insertion order (used for the feed) is kept in a lock-free skip
+// list keyed by a sequence number. Capacity is bounded by a station count and an estimated byte budget, and
+// the EvictionPolicy picks which station goes when either is exceeded.
+public class StationStore {
+
+    // Called inside the per-station critical section, so calls for one station arrive in the order applied
+    public interface Listener {
+        default void stationPut(StationRecord record, StationRecord previous) {}
+
+        default void stationRemoved(StationRecord record) {}
+
+        // After a removal, on the removing thread once the station's lock is released but before the version
+        // moves; by then the station may already have been written again
+        default void afterRemoval(StationRecord record) {}
+
+        // After the change is visible to readers and the version has moved; runs outside the station's lock
+        default void changed(long version) {}
+    }
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final EvictionPolicy policy;
+    private final ConcurrentHashMap<String, Entry> stations = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, String> insertionOrder = new ConcurrentSkipListMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicLong estimatedBytes = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final Object evictionLock = new Object();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public StationStore(int maxEntries) {
+        this(maxEntries, Long.MAX_VALUE, EvictionPolicy.named("fifo"));
+    }
+
+    public StationStore(int maxEntries, long maxBytes, EvictionPolicy policy) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public StationRecord get(String id) {
+        Entry entry = stations.get(id);
+        if (entry == null) {
+            return null;
+        }
+        policy.accessed(id);
+        return entry.record;
+    }
+
+    // Outcome of a conditional put: the record the station held before, and whether the new one replaced it
+    public static class PutResult {
+        public final StationRecord previous;
+        public final boolean applied;
+
+        PutResult(StationRecord previous, boolean applied) {
+            this.previous = previous;
+            this.applied = applied;
+        }
+    }
+
+    // Returns the record that was replaced, or null if the station is new
+    public StationRecord put(StationRecord record) {
+        return put(record, null).previous;
+    }
+
+    // Applies the record unless the station holds one that the order places at or after it (a null order always
+    // applies). The check and the write happen under the station's own lock, so concurrent writers to one
+    // station are ordered without a store-wide lock.
+    public PutResult putIfNewer(StationRecord record, Comparator<StationRecord> order) {
+        return put(record, order);
+    }
+
+    // Applies a batch in order; the result lists, per record, the record it replaced (null if new)
+    public List<StationRecord> putAll(List<StationRecord> records) {
+        List<StationRecord> previous = new ArrayList<>(records.size());
+        for (PutResult result : putAllIfNewer(records, null)) {
+            previous.add(result.previous);
+        }
+        return previous;
+    }
+
+    // A station named more than once is written once, with its last record, and the earlier ones share its result.
+    // Entries of one batch carry the same clocks, so under an order the later ones would otherwise be taken for
+    // retries and dropped, where a batch without one keeps the last. The version moves, and listeners hear of it,
+    // once the whole batch is in, and eviction runs after it; until then the store may hold up to a batch too many.
+    public List<PutResult> putAllIfNewer(List<StationRecord> records, Comparator<StationRecord> order) {
+        Map<String, Integer> last = new HashMap<>();
+        for (int i = 0; i < records.size(); i++) {
+            last.put(records.get(i).getId(), i);
+        }
+        PutResult[] results = new PutResult[records.size()];
+        boolean applied = false;
+        for (int i = 0; i < records.size(); i++) {
+            if (last.get(records.get(i).getId()) == i) {
+                results[i] = apply(records.get(i), order);
+                applied |= results[i].applied;
+            }
+        }
+        if (applied) {
+            changed();
+            evictOverflow();
+        }
+        for (int i = 0; i < records.size(); i++) {
+            if (results[i] == null) {
+                results[i] = results[last.get(records.get(i).getId())];
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    private PutResult put(StationRecord record, Comparator<StationRecord> order) {
+        PutResult result = apply(record, order);
+        if (result.applied) {
+            changed();
+            evictOverflow();
+        }
+        return result;
+    }
+
+    // Writes one station under its lock; the caller moves the version once the compute call has returned
+    private PutResult apply(StationRecord record, Comparator<StationRecord> order) {
+        StationRecord[] previous = new StationRecord[1];
+        boolean[] applied = new boolean[1];
+        stations.compute(record.getId(), (id, existing) -> {
+            long seq;
+            if (existing == null) {
+                seq = sequence.incrementAndGet();
+                insertionOrder.put(seq, id);
+                policy.inserted(id);
+            } else {
+                previous[0] = existing.record;
+                if (order != null && order.compare(record, existing.record) <= 0) {
+                    return existing; // Stale or a repeat: nothing changes
+                }
+                seq = existing.seq; // An update keeps the station's original position
+                estimatedBytes.addAndGet(-existing.record.estimatedBytes());
+                policy.updated(id);
+            }
+            estimatedBytes.addAndGet(record.estimatedBytes());
+            for (Listener listener : listeners) {
+                listener.stationPut(record, previous[0]);
+            }
+            applied[0] = true;
+            return new Entry(record, seq);
+        });
+        return new PutResult(previous[0], applied[0]);
+    }
+
+    public StationRecord remove(String id) {
+        StationRecord[] removed = new StationRecord[1];
+        stations.computeIfPresent(id, (key, existing) -> {
+            removed[0] = existing.record;
+            return detach(existing);
+        });
+        if (removed[0] != null) {
+            afterRemoval(removed[0]);
+            changed();
+        }
+        return removed[0];
+    }
+
+    public List<StationRecord> removeIf(Predicate<StationRecord> condition) {
+        List<StationRecord> removed = new ArrayList<>();
+        for (Entry entry : stations.values()) {
+            if (condition.test(entry.record)) {
+                removeIfMatches(entry.record.getId(), condition, removed);
+            }
+        }
+        return removed;
+    }
+
+    // Removes one station if it still matches when its lock is held; returns it, or null if it was kept
+    public StationRecord removeIf(String id, Predicate<StationRecord> condition) {
+        List<StationRecord> removed = new ArrayList<>(1);
+        removeIfMatches(id, condition, removed);
+        return removed.isEmpty() ? null : removed.get(0);
+    }
+
+    private void removeIfMatches(String id, Predicate<StationRecord> condition, List<StationRecord> removed) {
+        int before = removed.size();
+        stations.computeIfPresent(id, (key, existing) -> {
+            if (!condition.test(existing.record)) {
+                return existing; // Refreshed since we looked at it
+            }
+            removed.add(existing.record);
+            return detach(existing);
+        });
+        if (removed.size() > before) {
+            afterRemoval(removed.get(before));
+            changed();
+        }
+    }
+
+    // Stations in insertion order; each record is a complete, immutable version, and no lock is held
+    public List<StationRecord> snapshot() {
+        List<StationRecord> records = new ArrayList<>(stations.size());
+        for (String id : insertionOrder.values()) {
+            Entry entry = stations.get(id);
+            if (entry != null) {
+                records.add(entry.record);
+            }
+        }
+        return records;
+    }
+
+    public int size() {
+        return stations.size();
+    }
+
+    // Incremented on every change, so readers can tell whether anything happened since they last looked. It moves
+    // only once the change is visible, so a reader that sees the new version and then takes a snapshot cannot
+    // cache a snapshot that misses it.
+    public long version() {
+        return version.get();
+    }
+
+    public long estimatedBytes() {
+        return estimatedBytes.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    public int maxEntries() {
+        return maxEntries;
+    }
+
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    public String policy() {
+        return policy.name();
+    }
+
+    // Each round is one O(log n) lookup in the policy's order, and rounds only run while over capacity. Rounds are
+    // serialized so that two writers who both see the same overflow do not each evict a station for it; a store
+    // under capacity never takes the lock.
+    private void evictOverflow() {
+        if (!overCapacity()) return;
+        synchronized (evictionLock) {
+            while (overCapacity()) {
+                String victim = policy.victim();
+                if (victim == null) return;
+                StationRecord[] evicted = new StationRecord[1];
+                stations.compute(victim, (id, existing) -> {
+                    if (existing == null) {
+                        policy.removed(id); // Never leave a stale candidate at the head of the order
+                        return null;
+                    }
+                    evictions.incrementAndGet();
+                    evicted[0] = existing.record;
+                    return detach(existing);
+                });
+                if (evicted[0] != null) {
+                    afterRemoval(evicted[0]);
+                    changed();
+                }
+            }
+        }
+    }
+
+    private boolean overCapacity() {
+        return stations.size() > maxEntries || estimatedBytes.get() > maxBytes;
+    }
+
+    private void afterRemoval(StationRecord record) {
+        for (Listener listener : listeners) {
+            listener.afterRemoval(record);
+        }
+    }
+
+    private void changed() {
+        long current = version.incrementAndGet();
+        for (Listener listener : listeners) {
+            listener.changed(current);
+        }
+    }
+
+    // Must run inside the station's compute call; returns null so the mapping is dropped. The caller moves the
+    // version once the compute call has returned.
+    private Entry detach(Entry existing) {
+        insertionOrder.remove(existing.seq);
+        estimatedBytes.addAndGet(-existing.record.estimatedBytes());
+        policy.removed(existing.record.getId());
+        for (Listener listener : listeners) {
+            listener.stationRemoved(existing.record);
+        }
+        return null;
+    }
+
+    private static class Entry {
+        final StationRecord record;
+        final long seq;
+
+        Entry(StationRecord record, long seq) {
+            this.record = record;
+            this.seq = seq;
+        }
+    }
+}
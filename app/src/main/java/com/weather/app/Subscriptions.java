@@ -0,0 +1,230 @@
+package com.weather.app;
+
+import com.google.gson.*;
+import com.google.gson.stream.JsonWriter;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.*;
+
+// Fans store changes out to push subscribers (GET /stream) and wakes long-polling GETs, whether they wait on a
+// thread (awaitChange) or are parked without one (onChange). Each subscriber has a
+// bounded buffer that coalesces by station: a slow consumer only ever sees a station's latest version, and one
+// that falls more than its capacity of stations behind gets a reset instead, telling it to refetch the feed.
+public class Subscriptions implements StationStore.Listener {
+
+    private static final Gson GSON = new Gson();
+
+    private final StationStore store;
+    private final int maxSubscribers;
+    private final int bufferCapacity;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock versionLock = new ReentrantLock(); // Not a monitor, which would pin virtual threads
+    private final Condition versionChanged = versionLock.newCondition();
+    private final AtomicInteger versionWaiters = new AtomicInteger();
+    private final Set<CompletableFuture<Long>> parked = ConcurrentHashMap.newKeySet();
+
+    public Subscriptions(StationStore store, int maxSubscribers, int bufferCapacity) {
+        this.store = store;
+        this.maxSubscribers = maxSubscribers;
+        this.bufferCapacity = bufferCapacity;
+    }
+
+    // One change: record is the new version, or null if the station was removed
+    public static class Event {
+        public final String id;
+        public final StationRecord record;
+
+        Event(String id, StationRecord record) {
+            this.id = id;
+            this.record = record;
+        }
+    }
+
+    public static class Batch {
+        public final boolean reset;
+        public final List<Event> events;
+
+        Batch(boolean reset, List<Event> events) {
+            this.reset = reset;
+            this.events = events;
+        }
+
+        public boolean isEmpty() {
+            return !reset && events.isEmpty();
+        }
+    }
+
+    public class Subscriber implements AutoCloseable {
+        private final Set<String> ids; // Null for every station
+        private final LinkedHashMap<String, Event> pending = new LinkedHashMap<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private boolean reset;
+
+        Subscriber(Set<String> ids) {
+            this.ids = ids;
+        }
+
+        // Runs inside the store's per-station critical section, so it never blocks on the consumer. The consumer
+        // is woken by wake once the store has moved its version, not by each station of a batch PUT.
+        void offer(Event event) {
+            if (ids != null && !ids.contains(event.id)) return;
+            lock.lock();
+            try {
+                if (!pending.containsKey(event.id) && pending.size() >= bufferCapacity) {
+                    pending.clear(); // Too far behind to catch up station by station
+                    reset = true;
+                }
+                pending.put(event.id, event); // Replaces a version the consumer has not seen yet
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void wake() {
+            lock.lock();
+            try {
+                if (!pending.isEmpty() || reset) {
+                    changed.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Everything buffered so far, waiting up to timeoutMillis for the first change; empty on timeout
+        public Batch take(long timeoutMillis) throws InterruptedException {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            lock.lock();
+            try {
+                while (pending.isEmpty() && !reset && remaining > 0) {
+                    remaining = changed.awaitNanos(remaining);
+                }
+                Batch batch = new Batch(reset, new ArrayList<>(pending.values()));
+                pending.clear();
+                reset = false;
+                return batch;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            subscribers.remove(this);
+        }
+    }
+
+    // Null when the subscriber limit is reached
+    public Subscriber subscribe(Set<String> ids) {
+        Subscriber subscriber = new Subscriber(ids);
+        synchronized (subscribers) {
+            if (subscribers.size() >= maxSubscribers) return null;
+            subscribers.add(subscriber);
+        }
+        return subscriber;
+    }
+
+    public int size() {
+        return subscribers.size();
+    }
+
+    // Blocks until the store's version differs from the given one, or the timeout passes; returns the version
+    public long awaitChange(long version, long timeoutMillis) throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        versionWaiters.incrementAndGet();
+        versionLock.lock();
+        try {
+            long current;
+            while ((current = store.version()) == version && remaining > 0) {
+                remaining = versionChanged.awaitNanos(remaining);
+            }
+            return current;
+        } finally {
+            versionLock.unlock();
+            versionWaiters.decrementAndGet();
+        }
+    }
+
+    // Same as awaitChange without holding a thread: completes with the version once it differs from the given
+    // one, or with the given one when the timeout passes. It completes on the writer's or a timer thread, so
+    // anything slow belongs in an async stage.
+    public CompletableFuture<Long> onChange(long version, long timeoutMillis) {
+        CompletableFuture<Long> change = new CompletableFuture<>();
+        parked.add(change);
+        change.whenComplete((current, e) -> parked.remove(change));
+        long current = store.version();
+        if (current != version) {
+            change.complete(current); // Changed before it was parked, so changed() may have missed it
+        } else {
+            change.completeOnTimeout(version, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        return change;
+    }
+
+    public int parked() {
+        return parked.size();
+    }
+
+    // A batch as text/event-stream: one "station" event per changed station, "removed" for removals, and a
+    // "reset" first if events were dropped; an empty batch is a comment that keeps the connection alive
+    public static String toEventStream(Batch batch) throws IOException {
+        if (batch.isEmpty()) {
+            return ": keep-alive\n\n";
+        }
+        StringBuilder events = new StringBuilder();
+        if (batch.reset) {
+            events.append("event: reset\ndata: {}\n\n");
+        }
+        for (Event event : batch.events) {
+            StringWriter data = new StringWriter();
+            try (JsonWriter writer = GSON.newJsonWriter(data)) {
+                if (event.record != null) {
+                    event.record.data().writeTo(writer, GSON);
+                } else {
+                    writer.beginObject().name("id").value(event.id).endObject();
+                }
+            }
+            events.append("event: ").append(event.record != null ? "station" : "removed").append('\n');
+            events.append("data: ").append(data).append("\n\n");
+        }
+        return events.toString();
+    }
+
+    @Override
+    public void stationPut(StationRecord record, StationRecord previous) {
+        publish(new Event(record.getId(), record));
+    }
+
+    @Override
+    public void stationRemoved(StationRecord record) {
+        publish(new Event(record.getId(), null));
+    }
+
+    private void publish(Event event) {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(event);
+        }
+    }
+
+    // The store calls this after bumping its version, so a woken waiter always sees the change
+    @Override
+    public void changed(long version) {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.wake();
+        }
+        if (versionWaiters.get() > 0) {
+            versionLock.lock();
+            try {
+                versionChanged.signalAll();
+            } finally {
+                versionLock.unlock();
+            }
+        }
+        for (CompletableFuture<Long> change : parked) {
+            change.complete(version);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.weather.app;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bounded queue of station readings waiting to be uploaded, drained by one sender thread. A newer reading for
+// a station that is still waiting replaces the older one in place, so a slow server never receives superseded
+// readings; a removal replaces a waiting reading the same way. Once the queue holds `capacity` stations (in flight included), offer blocks until the sender makes
+// room. The sender hands up to `maxInFlight` readings at a time to the Sender, which pipelines them; a failed
+// round is retried after an exponential backoff with full jitter, so many content servers losing the same
+// aggregation server do not all come back at the same moment.
+public class UploadQueue implements Closeable {
+
+    public interface Sender {
+        // One HTTP status per upload, in order; IOException if the round could not be completed
+        List<Integer> send(List<Upload> uploads) throws IOException;
+    }
+
+    public static class Upload {
+        public final String stationId;
+        public final Map<String, String> data; // Null to remove the station
+        public long clock = -1; // Assigned on the first attempt; retries resend the same clock
+
+        public Upload(String stationId, Map<String, String> data) {
+            this.stationId = stationId;
+            this.data = data;
+        }
+    }
+
+    private final int capacity;
+    private final int maxInFlight;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final Sender sender;
+    private final LinkedHashMap<String, Upload> pending = new LinkedHashMap<>();
+    private final Thread worker;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private int inFlight;
+
+    public UploadQueue(int capacity, int maxInFlight, long baseBackoffMillis, long maxBackoffMillis, Sender sender) {
+        this.capacity = capacity;
+        this.maxInFlight = maxInFlight;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.sender = sender;
+        worker = new Thread(this::sendLoop, "upload-sender");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    // Queues the reading, replacing one for the same station that has not been sent yet; blocks while full
+    public synchronized void offer(Upload upload) throws InterruptedException {
+        if (pending.containsKey(upload.stationId)) {
+            pending.put(upload.stationId, upload); // Keeps the station's place in line
+            coalesced.incrementAndGet();
+            return;
+        }
+        while (pending.size() + inFlight >= capacity) {
+            wait();
+        }
+        pending.put(upload.stationId, upload);
+        notifyAll();
+    }
+
+    // Waits until everything offered so far has been sent or given up on; false if the timeout passed first
+    public synchronized boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!pending.isEmpty() || inFlight > 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) return false;
+            wait(remaining);
+        }
+        return true;
+    }
+
+    public synchronized int size() {
+        return pending.size() + inFlight;
+    }
+
+    public long sent() {
+        return sent.get();
+    }
+
+    public long coalesced() {
+        return coalesced.get();
+    }
+
+    public long retried() {
+        return retried.get();
+    }
+
+    // Refused by the server (409 for a stale reading, other 4xx for a bad one); never retried
+    public long rejected() {
+        return rejected.get();
+    }
+
+    private void sendLoop() {
+        int failures = 0;
+        try {
+            while (true) {
+                List<Upload> round = new ArrayList<>();
+                synchronized (this) {
+                    while (pending.isEmpty()) {
+                        wait();
+                    }
+                    Iterator<Upload> next = pending.values().iterator();
+                    while (next.hasNext() && round.size() < maxInFlight) {
+                        round.add(next.next());
+                        next.remove();
+                    }
+                    inFlight = round.size();
+                }
+
+                List<Upload> failed = new ArrayList<>();
+                try {
+                    List<Integer> statuses = sender.send(round);
+                    for (int i = 0; i < round.size(); i++) {
+                        int status = statuses.get(i);
+                        if (status < 300) {
+                            sent.incrementAndGet();
+                        } else if (status >= 500) {
+                            failed.add(round.get(i));
+                        } else {
+                            rejected.incrementAndGet();
+                        }
+                    }
+                } catch (IOException e) {
+                    System.out.println("Upload failed: " + e.getMessage());
+                    failed = round;
+                }
+
+                synchronized (this) {
+                    requeue(failed);
+                    inFlight = 0;
+                    notifyAll();
+                }
+                if (failed.isEmpty()) {
+                    failures = 0;
+                } else {
+                    retried.addAndGet(failed.size());
+                    Thread.sleep(backoffMillis(++failures));
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    // Failed readings go back to the front of the line, unless a newer reading for the station arrived meanwhile
+    private void requeue(List<Upload> failed) {
+        if (failed.isEmpty()) return;
+        LinkedHashMap<String, Upload> reordered = new LinkedHashMap<>();
+        for (Upload upload : failed) {
+            if (!pending.containsKey(upload.stationId)) {
+                reordered.put(upload.stationId, upload);
+            }
+        }
+        reordered.putAll(pending);
+        pending.clear();
+        pending.putAll(reordered);
+    }
+
+    // Full jitter: uniformly between zero and the capped exponential delay for this many consecutive failures
+    long backoffMillis(int failures) {
+        long ceiling = baseBackoffMillis << Math.min(failures - 1, 30);
+        return ThreadLocalRandom.current().nextLong(Math.min(ceiling, maxBackoffMillis) + 1);
+    }
+
+    @Override
+    public void close() {
+        worker.interrupt();
+    }
+}
@@ -1,31 +1,318 @@
 package com.weather.app;
 
-import java.util.Map;
+import com.google.gson.*;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
+// Compact form of one station observation. Fields of the known schema are held in primitive slots (numbers as
+// long bits) or as shared, interned strings for the enum-like fields; anything else goes to an overflow map.
+// A value is only stored compactly if it can be written back exactly as it arrived, so serializing a record
+// reproduces its original JSON (apart from field order: id first, then the schema, overflow, origin,
+// origin_clock, lamport, timestamp).
 public class WeatherData {
-    private Map<String, String> data;
-    private int lamportTime;
+
+    private static final String[] NUMBER_FIELDS = {
+            "lat", "lon", "local_date_time_full", "air_temp", "apparent_t", "dewpt", "press", "rel_hum",
+            "wind_spd_kmh", "wind_spd_kt"};
+    private static final String[] TEXT_FIELDS = {"name", "local_date_time"};
+    private static final String[] SYMBOL_FIELDS = {"state", "time_zone", "cloud", "wind_dir"};
+    private static final Map<String, Integer> SLOTS = new HashMap<>();
+    private static final int MAX_SYMBOLS = 4096;
+    private static final ConcurrentHashMap<String, String> SYMBOLS = new ConcurrentHashMap<>();
+
+    // Approximate heap costs on a 64-bit JVM with compressed oops
+    private static final long BASE_BYTES = 56 + 16 + 8 * NUMBER_FIELDS.length + 16 + 4 * (TEXT_FIELDS.length + SYMBOL_FIELDS.length);
+    private static final long STRING_BYTES = 40;
+    private static final long OVERFLOW_FIELD_BYTES = 72 + 56; // Map node, key and JsonPrimitive
+
+    static {
+        for (int i = 0; i < NUMBER_FIELDS.length; i++) SLOTS.put(NUMBER_FIELDS[i], i);
+        for (int i = 0; i < TEXT_FIELDS.length; i++) SLOTS.put(TEXT_FIELDS[i], NUMBER_FIELDS.length + i);
+        for (int i = 0; i < SYMBOL_FIELDS.length; i++) SLOTS.put(SYMBOL_FIELDS[i], NUMBER_FIELDS.length + TEXT_FIELDS.length + i);
+    }
+
+    private String id;
+    private String origin;
+    private long originClock;
+    private boolean hasTimestamp;
     private long lastUpdated;
+    private long lamportTime;
+    private int present; // One bit per schema slot
+    private int quoted; // Number slots whose value arrived as a JSON string
+    private int integral; // Number slots holding a long rather than double bits
+    private final long[] numbers = new long[NUMBER_FIELDS.length];
+    private final String[] strings = new String[TEXT_FIELDS.length + SYMBOL_FIELDS.length];
+    private Map<String, JsonElement> overflow;
 
-    public WeatherData(Map<String, String> data, int lamportTime) {
-        this.data = data;
+    public WeatherData(Map<String, String> data, long lamportTime) {
+        for (Map.Entry<String, String> field : data.entrySet()) {
+            set(field.getKey(), new JsonPrimitive(field.getValue()));
+        }
         this.lamportTime = lamportTime;
+        this.hasTimestamp = true;
         this.lastUpdated = System.currentTimeMillis();
     }
 
+    private WeatherData() {
+    }
+
+    public static WeatherData fromJson(JsonObject json) {
+        WeatherData data = new WeatherData();
+        for (Map.Entry<String, JsonElement> field : json.entrySet()) {
+            data.set(field.getKey(), field.getValue());
+        }
+        return data;
+    }
+
+    // Everything except origin and timestamp, as strings
     public Map<String, String> getData() {
+        Map<String, String> data = new LinkedHashMap<>();
+        if (id != null) data.put("id", id);
+        for (int slot = 0; slot < NUMBER_FIELDS.length + strings.length; slot++) {
+            String value = text(fieldName(slot));
+            if (value != null) data.put(fieldName(slot), value);
+        }
+        if (overflow != null) {
+            for (Map.Entry<String, JsonElement> field : overflow.entrySet()) {
+                JsonElement value = field.getValue();
+                data.put(field.getKey(), value.isJsonPrimitive() ? value.getAsString() : value.toString());
+            }
+        }
         return data;
     }
 
-    public int getLamportTime() {
+    // The schema fields held as numbers, in slot order
+    public static List<String> numberFields() {
+        return Collections.unmodifiableList(Arrays.asList(NUMBER_FIELDS));
+    }
+
+    // Lamport time at which the server wrote this version, or 0 if it was never stamped
+    public long getLamportTime() {
         return lamportTime;
     }
 
     public void updateLastUpdated() {
+        this.hasTimestamp = true;
         this.lastUpdated = System.currentTimeMillis();
     }
 
     public long getLastUpdated() {
         return lastUpdated;
     }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    // The sending content server's Lamport clock when it sent this version, or 0 if it was not recorded
+    public long getOriginClock() {
+        return originClock;
+    }
+
+    // The field as text, or null if it is absent or not a primitive
+    public String text(String field) {
+        if ("id".equals(field)) return id;
+        if ("origin".equals(field)) return origin;
+        Integer slot = SLOTS.get(field);
+        if (slot != null && (present & (1 << slot)) != 0) {
+            return slot < NUMBER_FIELDS.length ? numberText(slot) : strings[slot - NUMBER_FIELDS.length];
+        }
+        JsonElement value = overflow == null ? null : overflow.get(field);
+        return value != null && value.isJsonPrimitive() ? value.getAsString() : null;
+    }
+
+    // The field as a number, or null if it is absent or not numeric
+    public Double number(String field) {
+        Integer slot = SLOTS.get(field);
+        if (slot != null && slot < NUMBER_FIELDS.length && (present & (1 << slot)) != 0) {
+            return (integral & (1 << slot)) != 0 ? (double) numbers[slot] : Double.longBitsToDouble(numbers[slot]);
+        }
+        String value = text(field);
+        if (value == null) return null;
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        if (id != null) json.addProperty("id", id);
+        for (int slot = 0; slot < NUMBER_FIELDS.length + strings.length; slot++) {
+            if ((present & (1 << slot)) == 0) continue;
+            if (slot >= NUMBER_FIELDS.length) {
+                json.addProperty(fieldName(slot), strings[slot - NUMBER_FIELDS.length]);
+            } else if ((quoted & (1 << slot)) != 0) {
+                json.addProperty(fieldName(slot), numberText(slot));
+            } else if ((integral & (1 << slot)) != 0) {
+                json.addProperty(fieldName(slot), numbers[slot]);
+            } else {
+                json.addProperty(fieldName(slot), Double.longBitsToDouble(numbers[slot]));
+            }
+        }
+        if (overflow != null) {
+            for (Map.Entry<String, JsonElement> field : overflow.entrySet()) {
+                json.add(field.getKey(), field.getValue().deepCopy());
+            }
+        }
+        if (origin != null) json.addProperty("origin", origin);
+        if (originClock > 0) json.addProperty("origin_clock", originClock);
+        if (lamportTime > 0) json.addProperty("lamport", lamportTime);
+        if (hasTimestamp) json.addProperty("timestamp", lastUpdated);
+        return json;
+    }
+
+    // Writes the record without building a JSON tree; the writer's formatting settings apply
+    public void writeTo(JsonWriter out, Gson gson) throws IOException {
+        out.beginObject();
+        if (id != null) out.name("id").value(id);
+        for (int slot = 0; slot < NUMBER_FIELDS.length + strings.length; slot++) {
+            if ((present & (1 << slot)) == 0) continue;
+            out.name(fieldName(slot));
+            if (slot >= NUMBER_FIELDS.length) {
+                out.value(strings[slot - NUMBER_FIELDS.length]);
+            } else if ((quoted & (1 << slot)) != 0) {
+                out.value(numberText(slot));
+            } else if ((integral & (1 << slot)) != 0) {
+                out.value(numbers[slot]);
+            } else {
+                out.value(Double.longBitsToDouble(numbers[slot]));
+            }
+        }
+        if (overflow != null) {
+            for (Map.Entry<String, JsonElement> field : overflow.entrySet()) {
+                out.name(field.getKey());
+                gson.toJson(field.getValue(), out);
+            }
+        }
+        if (origin != null) out.name("origin").value(origin);
+        if (originClock > 0) out.name("origin_clock").value(originClock);
+        if (lamportTime > 0) out.name("lamport").value(lamportTime);
+        if (hasTimestamp) out.name("timestamp").value(lastUpdated);
+        out.endObject();
+    }
+
+    public long estimatedBytes() {
+        long bytes = BASE_BYTES;
+        if (id != null) bytes += STRING_BYTES + id.length();
+        if (origin != null) bytes += STRING_BYTES + origin.length();
+        for (int i = 0; i < TEXT_FIELDS.length; i++) {
+            if (strings[i] != null) bytes += STRING_BYTES + strings[i].length(); // Symbols are shared
+        }
+        if (overflow != null) {
+            for (Map.Entry<String, JsonElement> field : overflow.entrySet()) {
+                bytes += OVERFLOW_FIELD_BYTES + field.getKey().length() + field.getValue().toString().length();
+            }
+        }
+        return bytes;
+    }
+
+    private void set(String field, JsonElement value) {
+        if ("id".equals(field) && value.isJsonPrimitive()) {
+            id = value.getAsString();
+            return;
+        }
+        if ("origin".equals(field) && value.isJsonPrimitive()) {
+            origin = value.getAsString(); // Not a symbol: senders without an id get a per-connection origin
+            return;
+        }
+        if ("lamport".equals(field) && isClock(value)) {
+            lamportTime = value.getAsLong();
+            return;
+        }
+        if ("origin_clock".equals(field) && isClock(value)) {
+            originClock = value.getAsLong();
+            return;
+        }
+        if ("timestamp".equals(field) && value.isJsonPrimitive() && value.getAsJsonPrimitive().isNumber()) {
+            hasTimestamp = true;
+            lastUpdated = value.getAsLong();
+            return;
+        }
+        Integer slot = SLOTS.get(field);
+        if (slot != null && value.isJsonPrimitive() && setSlot(slot, value.getAsJsonPrimitive())) {
+            present |= 1 << slot;
+            if (overflow != null) overflow.remove(field);
+            return;
+        }
+        if (overflow == null) {
+            overflow = new LinkedHashMap<>();
+        }
+        overflow.put(field, value);
+    }
+
+    // A positive long written as a plain JSON number, so that it prints back unchanged
+    private static boolean isClock(JsonElement value) {
+        if (!value.isJsonPrimitive() || !value.getAsJsonPrimitive().isNumber()) return false;
+        String text = value.getAsString();
+        try {
+            long clock = Long.parseLong(text);
+            return clock > 0 && Long.toString(clock).equals(text);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private boolean setSlot(int slot, JsonPrimitive value) {
+        if (slot >= NUMBER_FIELDS.length) {
+            if (!value.isString()) return false;
+            int index = slot - NUMBER_FIELDS.length;
+            strings[index] = index < TEXT_FIELDS.length ? value.getAsString() : symbol(value.getAsString());
+            return true;
+        }
+        if (value.isBoolean()) return false;
+        String text = value.getAsString();
+        // Only take the value if it prints back exactly as received
+        try {
+            long number = Long.parseLong(text);
+            if (Long.toString(number).equals(text)) {
+                numbers[slot] = number;
+                integral |= 1 << slot;
+                quoted = value.isString() ? quoted | 1 << slot : quoted & ~(1 << slot);
+                return true;
+            }
+        } catch (NumberFormatException e) {
+            // Not an integer; try a double below
+        }
+        try {
+            double number = Double.parseDouble(text);
+            if (Double.isFinite(number) && Double.toString(number).equals(text)) {
+                numbers[slot] = Double.doubleToRawLongBits(number);
+                integral &= ~(1 << slot);
+                quoted = value.isString() ? quoted | 1 << slot : quoted & ~(1 << slot);
+                return true;
+            }
+        } catch (NumberFormatException e) {
+            // Not numeric at all
+        }
+        return false;
+    }
+
+    private String numberText(int slot) {
+        return (integral & (1 << slot)) != 0
+                ? Long.toString(numbers[slot])
+                : Double.toString(Double.longBitsToDouble(numbers[slot]));
+    }
+
+    private static String fieldName(int slot) {
+        if (slot < NUMBER_FIELDS.length) return NUMBER_FIELDS[slot];
+        slot -= NUMBER_FIELDS.length;
+        return slot < TEXT_FIELDS.length ? TEXT_FIELDS[slot] : SYMBOL_FIELDS[slot - TEXT_FIELDS.length];
+    }
+
+    // A handful of distinct states, time zones, cloud and wind values repeat across every station, so share them
+    private static String symbol(String value) {
+        String shared = SYMBOLS.get(value);
+        if (shared != null) return shared;
+        if (SYMBOLS.size() >= MAX_SYMBOLS) return value;
+        shared = SYMBOLS.putIfAbsent(value, value);
+        return shared != null ? shared : value;
+    }
 }
@@ -0,0 +1,245 @@
+package com.weather.app;
+
+import com.google.gson.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Append-only log of store mutations, one JSON record per line. A single committer thread drains every
+// record queued since its last write and makes the whole group durable with one fsync.
+// The log is split into numbered segments (weatherData.wal.1, .2, ...) so a snapshot can retire old ones.
+public class WriteAheadLog implements Closeable, StationStore.Listener {
+
+    private final Path basePath;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final Thread committer;
+    private final AtomicLong recordsSinceRotate = new AtomicLong();
+    private volatile long segment;
+    private FileChannel channel;
+
+    public WriteAheadLog(Path basePath) throws IOException {
+        this.basePath = basePath;
+        List<Long> existing = segments(basePath);
+        this.segment = existing.isEmpty() ? 1 : existing.get(existing.size() - 1) + 1;
+        this.channel = openSegment(segment);
+
+        committer = new Thread(this::commitLoop, "wal-committer");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    public static JsonObject putRecord(JsonObject data) {
+        JsonObject record = new JsonObject();
+        record.addProperty("op", "put");
+        record.add("data", data);
+        return record;
+    }
+
+    public static JsonObject removeRecord(String id) {
+        JsonObject record = new JsonObject();
+        record.addProperty("op", "remove");
+        record.addProperty("id", id);
+        return record;
+    }
+
+    // A lease renewal: every station of the origin was alive at the given time
+    public static JsonObject heartbeatRecord(String origin, long time) {
+        JsonObject record = new JsonObject();
+        record.addProperty("op", "heartbeat");
+        record.addProperty("origin", origin);
+        record.addProperty("time", time);
+        return record;
+    }
+
+    // Completes once the record has been forced to disk
+    public CompletableFuture<Void> append(JsonObject record) {
+        recordsSinceRotate.incrementAndGet();
+        return carryOver(record);
+    }
+
+    // Appends a record restating what the retired segments held, so it does not count towards the next snapshot
+    public CompletableFuture<Void> carryOver(JsonObject record) {
+        Entry entry = new Entry((record.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        queue.add(entry);
+        return entry.done;
+    }
+
+    // Completes once every record appended before this call is durable; shares the fsync of that group
+    public CompletableFuture<Void> sync() {
+        Entry barrier = new Entry(new byte[0]);
+        queue.add(barrier);
+        return barrier.done;
+    }
+
+    @Override
+    public void stationPut(StationRecord record, StationRecord previous) {
+        append(putRecord(record.json()));
+    }
+
+    @Override
+    public void stationRemoved(StationRecord record) {
+        append(removeRecord(record.getId()));
+    }
+
+    public long recordsSinceRotate() {
+        return recordsSinceRotate.get();
+    }
+
+    // Starts a new segment once everything queued before this call is durable, and returns its number.
+    // Every earlier segment is then complete and may be deleted after a snapshot covering it is written.
+    public long rotate() throws IOException {
+        Entry marker = new Entry(null);
+        queue.add(marker);
+        recordsSinceRotate.set(0);
+        try {
+            marker.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rotating the log");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to rotate the log", e.getCause());
+        }
+        return segment;
+    }
+
+    public void deleteSegmentsBefore(long firstKept) throws IOException {
+        for (long number : segments(basePath)) {
+            if (number < firstKept) {
+                Files.deleteIfExists(segmentPath(basePath, number));
+            }
+        }
+    }
+
+    // Feeds every record of every segment, oldest first, to the consumer. A torn final line from a crash
+    // mid-write was never acknowledged, so it is skipped. Each segment is read as it was when replay reached
+    // it, so records appended while replaying (e.g. by a live log on the same path) are not fed back in.
+    public static void replay(Path basePath, Consumer<JsonObject> consumer) throws IOException {
+        for (long number : segments(basePath)) {
+            byte[] content = Files.readAllBytes(segmentPath(basePath, number));
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) continue;
+                    try {
+                        consumer.accept(JsonParser.parseString(line).getAsJsonObject());
+                    } catch (JsonParseException | IllegalStateException e) {
+                        System.out.println("Skipping unreadable log record in segment " + number);
+                    }
+                }
+            }
+        }
+    }
+
+    private void commitLoop() {
+        List<Entry> batch = new ArrayList<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch);
+
+            int start = 0;
+            for (int i = 0; i <= batch.size(); i++) {
+                if (i == batch.size() || batch.get(i).data == null) {
+                    commit(batch.subList(start, i));
+                    if (i < batch.size()) {
+                        switchSegment(batch.get(i));
+                    }
+                    start = i + 1;
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private void commit(List<Entry> group) {
+        if (group.isEmpty()) return;
+        try {
+            int size = 0;
+            for (Entry entry : group) {
+                size += entry.data.length;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            for (Entry entry : group) {
+                buffer.put(entry.data);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            for (Entry entry : group) {
+                entry.done.complete(null);
+            }
+        } catch (IOException e) {
+            for (Entry entry : group) {
+                entry.done.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void switchSegment(Entry marker) {
+        try {
+            channel.close();
+            channel = openSegment(segment + 1);
+            segment++;
+            marker.done.complete(null);
+        } catch (IOException e) {
+            marker.done.completeExceptionally(e);
+        }
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        return FileChannel.open(segmentPath(basePath, number),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static Path segmentPath(Path basePath, long number) {
+        return basePath.resolveSibling(basePath.getFileName() + "." + number);
+    }
+
+    private static List<Long> segments(Path basePath) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        Path directory = basePath.toAbsolutePath().getParent();
+        String prefix = basePath.getFileName() + ".";
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (Path file : files) {
+                try {
+                    numbers.add(Long.parseLong(file.getFileName().toString().substring(prefix.length())));
+                } catch (NumberFormatException e) {
+                    // Not a log segment
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    @Override
+    public void close() throws IOException {
+        committer.interrupt();
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private static class Entry {
+        final byte[] data; // null marks a segment switch
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Entry(byte[] data) {
+            this.data = data;
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package com.weather.app;
+import com.google.gson.*;
 import org.junit.jupiter.api.*;
 import java.io.*;
-import java.net.Socket;
+import java.net.*;
+import java.util.*;
 import static org.junit.jupiter.api.Assertions.*;
 
 class AggregationServerTest {
@@ -207,6 +209,424 @@ class AggregationServerTest {
         socket.close();
     }
 
+    @Test
+    void testKeepAliveServesSeveralRequestsOnOneConnection() throws IOException {
+        String jsonData = "{ \"id\": \"005\", \"name\": \"Keep Alive\", \"state\": \"Test State\" }";
+        Socket socket = new Socket("localhost", 4568);
+        socket.setSoTimeout(5000);
+        OutputStream out = socket.getOutputStream();
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+
+        String put = "PUT /weather.json HTTP/1.1\r\n"
+                + "Content-Length: " + jsonData.length() + "\r\n"
+                + "Lamport-Clock: 1\r\n"
+                + "Connection: keep-alive\r\n"
+                + "\r\n"
+                + jsonData;
+        String get = "GET /weather.json HTTP/1.1\r\n"
+                + "Lamport-Clock: 2\r\n"
+                + "Connection: keep-alive\r\n"
+                + "\r\n";
+        out.write((put + get).getBytes());
+        out.flush();
+
+        HttpResponse putResponse = HttpResponse.readFrom(in);
+        assertEquals(200, putResponse.getStatus());
+        assertTrue(putResponse.isKeepAlive());
+
+        HttpResponse getResponse = HttpResponse.readFrom(in);
+        assertEquals(200, getResponse.getStatus());
+        assertTrue(new String(getResponse.getBody()).contains("Keep Alive"));
+
+        socket.close();
+    }
+
+    @Test
+    void testConditionalGetReturnsNotModified() throws IOException {
+        HttpResponse first = get(null);
+        String etag = first.getHeader("ETag");
+        assertNotNull(etag);
+
+        HttpResponse second = get(etag);
+        if (second.getStatus() == 200) {
+            // Another test changed the store in between; the new tag must then match
+            second = get(second.getHeader("ETag"));
+        }
+        assertEquals(304, second.getStatus());
+        assertEquals(0, second.getBody().length);
+    }
+
+    @Test
+    void testGetSingleStationById() throws IOException {
+        sendPutRequest("{ \"id\": \"006\", \"name\": \"Only Me\", \"state\": \"Test State\" }", 1);
+        sendPutRequest("{ \"id\": \"007\", \"name\": \"Not Me\", \"state\": \"Test State\" }", 1);
+
+        try (Socket socket = new Socket("localhost", 4568)) {
+            socket.getOutputStream().write("GET /?id=006 HTTP/1.1\r\nLamport-Clock: 1\r\n\r\n".getBytes());
+            HttpResponse response = HttpResponse.readFrom(new BufferedInputStream(socket.getInputStream()));
+            String body = new String(response.getBody());
+            assertEquals(200, response.getStatus());
+            assertTrue(body.contains("Only Me"));
+            assertFalse(body.contains("Not Me"));
+        }
+    }
+
+    @Test
+    void testBatchPutReturnsStatusPerEntry() throws IOException {
+        String batch = "[{ \"id\": \"B01\", \"name\": \"Batch One\" }, { \"name\": \"No Id\" }, { \"id\": \"B02\" }]";
+        HttpResponse response = put(batch, "application/json");
+        assertEquals(200, response.getStatus());
+
+        com.google.gson.JsonArray statuses = com.google.gson.JsonParser.parseString(new String(response.getBody())).getAsJsonArray();
+        assertEquals(3, statuses.size());
+        assertTrue(statuses.get(0).getAsJsonObject().get("status").getAsInt() < 300);
+        assertEquals(400, statuses.get(1).getAsJsonObject().get("status").getAsInt());
+        assertEquals("B02", statuses.get(2).getAsJsonObject().get("id").getAsString());
+    }
+
+    @Test
+    void testNdjsonBatchPut() throws IOException {
+        String batch = "{ \"id\": \"N01\", \"name\": \"Line One\" }\n{ \"id\": \"N02\", \"name\": \"Line Two\" }\n";
+        HttpResponse response = put(batch, "application/x-ndjson");
+        assertEquals(200, response.getStatus());
+        assertEquals(2, com.google.gson.JsonParser.parseString(new String(response.getBody())).getAsJsonArray().size());
+        assertTrue(new String(get(null).getBody()).contains("Line Two"));
+    }
+
+    @Test
+    void testOversizedPutIsRejected() throws IOException {
+        try (Socket socket = new Socket("localhost", 4568)) {
+            OutputStream out = socket.getOutputStream();
+            String head = "PUT /weather.json HTTP/1.1\r\n"
+                    + "Content-Type: application/json\r\n"
+                    + "Content-Length: " + (HttpRequest.MAX_BODY_BYTES + 1) + "\r\n"
+                    + "\r\n";
+            out.write(head.getBytes());
+            out.flush();
+
+            HttpResponse response = HttpResponse.readFrom(new BufferedInputStream(socket.getInputStream()));
+            assertEquals(413, response.getStatus());
+        }
+    }
+
+    @Test
+    void testMalformedPutKeepsConnectionUsable() throws IOException {
+        try (Socket socket = new Socket("localhost", 4568)) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            String body = "{ \"id\": } trailing bytes the parser never reaches";
+            String request = "PUT /weather.json HTTP/1.1\r\n"
+                    + "Connection: keep-alive\r\n"
+                    + "Content-Length: " + body.length() + "\r\n"
+                    + "\r\n" + body
+                    + "GET /weather.json HTTP/1.1\r\n"
+                    + "\r\n";
+            out.write(request.getBytes());
+            out.flush();
+
+            assertEquals(400, HttpResponse.readFrom(in).getStatus());
+            assertEquals(200, HttpResponse.readFrom(in).getStatus());
+        }
+    }
+
+    @Test
+    void testStatsReportCapacityAndEvictions() throws IOException {
+        try (Socket socket = new Socket("localhost", 4568)) {
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /stats HTTP/1.1\r\n\r\n".getBytes());
+            out.flush();
+
+            HttpResponse response = HttpResponse.readFrom(new BufferedInputStream(socket.getInputStream()));
+            assertEquals(200, response.getStatus());
+            com.google.gson.JsonObject stats = com.google.gson.JsonParser.parseString(new String(response.getBody())).getAsJsonObject();
+            assertEquals(20, stats.get("maxEntries").getAsInt());
+            assertEquals("fifo", stats.get("evictionPolicy").getAsString());
+            assertTrue(stats.has("evictions"));
+            assertTrue(stats.get("estimatedBytes").getAsLong() >= 0);
+        }
+    }
+
+    @Test
+    void testHistoryKeepsEveryReading() throws IOException {
+        put("{\"id\":\"H01\",\"air_temp\":12.5}", "application/json");
+        put("{\"id\":\"H01\",\"air_temp\":12.9}", "application/json");
+
+        try (Socket socket = new Socket("localhost", 4568)) {
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /history?id=H01 HTTP/1.1\r\n\r\n".getBytes());
+            out.flush();
+
+            HttpResponse response = HttpResponse.readFrom(new BufferedInputStream(socket.getInputStream()));
+            assertEquals(200, response.getStatus());
+            com.google.gson.JsonObject history = com.google.gson.JsonParser.parseString(new String(response.getBody())).getAsJsonObject();
+            com.google.gson.JsonArray airTemp = history.getAsJsonObject("fields").getAsJsonArray("air_temp");
+            assertEquals(12.9, airTemp.get(airTemp.size() - 1).getAsDouble());
+            assertEquals(history.getAsJsonArray("timestamps").size(), airTemp.size());
+        }
+    }
+
+    @Test
+    void testAggregateByState() throws IOException {
+        put("{\"id\":\"G01\",\"state\":\"XA\",\"air_temp\":10.0}", "application/json");
+        put("{\"id\":\"G02\",\"state\":\"XA\",\"air_temp\":14.0}", "application/json");
+
+        try (Socket socket = new Socket("localhost", 4568)) {
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /aggregate?field=air_temp&groupBy=state&window=5m HTTP/1.1\r\n\r\n".getBytes());
+            out.flush();
+
+            HttpResponse response = HttpResponse.readFrom(new BufferedInputStream(socket.getInputStream()));
+            assertEquals(200, response.getStatus());
+            com.google.gson.JsonObject groups = com.google.gson.JsonParser.parseString(new String(response.getBody()))
+                    .getAsJsonObject().getAsJsonObject("groups");
+            assertEquals(2, groups.getAsJsonObject("XA").get("count").getAsInt());
+            assertEquals(12.0, groups.getAsJsonObject("XA").get("avg").getAsDouble());
+        }
+        try (Socket socket = new Socket("localhost", 4568)) {
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /aggregate?field=air_temp&window=5d HTTP/1.1\r\n\r\n".getBytes());
+            out.flush();
+            assertEquals(400, HttpResponse.readFrom(new BufferedInputStream(socket.getInputStream())).getStatus());
+        }
+    }
+
+    @Test
+    void testStreamPushesChanges() throws IOException {
+        try (Socket socket = new Socket("localhost", 4568)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /stream?id=E01 HTTP/1.1\r\n\r\n".getBytes());
+            out.flush();
+
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            assertTrue(HttpRequest.readLine(in).startsWith("HTTP/1.1 200"));
+            String line;
+            while (!(line = HttpRequest.readLine(in)).isEmpty()) {
+                if (line.startsWith("Content-Type")) {
+                    assertTrue(line.endsWith("text/event-stream"));
+                }
+            }
+
+            put("{\"id\":\"E02\",\"air_temp\":1.5}", "application/json"); // Not subscribed to
+            put("{\"id\":\"E01\",\"air_temp\":7.5}", "application/json");
+            assertEquals("event: station", HttpRequest.readLine(in));
+            String data = HttpRequest.readLine(in);
+            assertTrue(data.startsWith("data: {\"id\":\"E01\"") && data.contains("\"air_temp\":7.5"), data);
+        }
+    }
+
+    @Test
+    void testLongPollWaitsForChange() throws Exception {
+        String etag = get(null).getHeader("ETag");
+        Thread writer = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+                put("{\"id\":\"L01\",\"air_temp\":3.5}", "application/json");
+            } catch (Exception e) {
+                // The assertions below fail on their own
+            }
+        });
+        writer.start();
+
+        long start = System.currentTimeMillis();
+        try (Socket socket = new Socket("localhost", 4568)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /?wait=10 HTTP/1.1\r\nIf-None-Match: " + etag + "\r\n\r\n").getBytes());
+            out.flush();
+
+            HttpResponse response = HttpResponse.readFrom(new BufferedInputStream(socket.getInputStream()));
+            assertEquals(200, response.getStatus());
+            assertNotEquals(etag, response.getHeader("ETag"));
+        }
+        assertTrue(System.currentTimeMillis() - start < 10_000);
+        writer.join();
+    }
+
+    @Test
+    void testPoolLetsOnlySomeRequestsWait() throws Exception {
+        String etag = get(null).getHeader("ETag");
+        List<Socket> polls = new ArrayList<>();
+        try {
+            for (int i = 0; i < 8; i++) {
+                Socket socket = new Socket("localhost", 4568);
+                socket.getOutputStream().write(("GET /?wait=30 HTTP/1.1\r\nIf-None-Match: " + etag + "\r\n\r\n").getBytes());
+                polls.add(socket);
+            }
+
+            // Past its permits the pool answers at once, as if the wait had run out
+            List<InputStream> waiting = new ArrayList<>();
+            for (Socket socket : polls) {
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                socket.setSoTimeout(1_000);
+                try {
+                    assertEquals(304, HttpResponse.readFrom(in).getStatus());
+                } catch (SocketTimeoutException e) {
+                    waiting.add(in);
+                }
+            }
+            assertTrue(waiting.size() >= 1 && waiting.size() <= 5, "waiting: " + waiting.size());
+            assertEquals(200, get(null).getStatus()); // The pool still has threads for everyone else
+
+            put("{\"id\":\"L02\",\"air_temp\":4.5}", "application/json");
+            for (Socket socket : polls) {
+                socket.setSoTimeout(10_000);
+            }
+            for (InputStream in : waiting) {
+                assertEquals(200, HttpResponse.readFrom(in).getStatus());
+            }
+        } finally {
+            for (Socket socket : polls) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    void testDeltaSinceClock() throws IOException {
+        put("{\"id\":\"D01\",\"air_temp\":1.0}", "application/json");
+        long clock = delta(0).get("clock").getAsLong();
+        put("{\"id\":\"D02\",\"air_temp\":2.0}", "application/json");
+
+        com.google.gson.JsonObject delta = delta(clock);
+        assertFalse(delta.get("full").getAsBoolean());
+        com.google.gson.JsonArray stations = delta.getAsJsonArray("stations");
+        assertEquals(1, stations.size());
+        assertEquals("D02", stations.get(0).getAsJsonObject().get("id").getAsString());
+        assertTrue(stations.get(0).getAsJsonObject().get("lamport").getAsLong() > clock);
+        assertTrue(delta.get("clock").getAsLong() > clock);
+    }
+
+    private com.google.gson.JsonObject delta(long since) throws IOException {
+        try (Socket socket = new Socket("localhost", 4568)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /?since=" + since + " HTTP/1.1\r\n\r\n").getBytes());
+            out.flush();
+            HttpResponse response = HttpResponse.readFrom(new BufferedInputStream(socket.getInputStream()));
+            assertEquals(200, response.getStatus());
+            return com.google.gson.JsonParser.parseString(new String(response.getBody())).getAsJsonObject();
+        }
+    }
+
+    @Test
+    void testStaleUpdatesAreRejected() throws IOException {
+        assertEquals(200, orderedPut("{\"id\":\"C01\",\"air_temp\":20.0}", "north", 5000).getStatus());
+        assertEquals(200, orderedPut("{\"id\":\"C01\",\"air_temp\":20.0}", "north", 5000).getStatus()); // Retry
+        assertEquals(409, orderedPut("{\"id\":\"C01\",\"air_temp\":19.0}", "south", 4999).getStatus());
+
+        try (Socket socket = new Socket("localhost", 4568)) {
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /?id=C01 HTTP/1.1\r\n\r\n".getBytes());
+            out.flush();
+            HttpResponse response = HttpResponse.readFrom(new BufferedInputStream(socket.getInputStream()));
+            com.google.gson.JsonObject station = com.google.gson.JsonParser.parseString(new String(response.getBody()))
+                    .getAsJsonArray().get(0).getAsJsonObject();
+            assertEquals(20.0, station.get("air_temp").getAsDouble());
+            assertEquals(5000, station.get("origin_clock").getAsInt());
+        }
+    }
+
+    @Test
+    void testOrderedBatchKeepsTheLastReadingOfAStation() throws IOException {
+        String batch = "[{\"id\":\"C05\",\"air_temp\":1.0},{\"id\":\"C06\",\"air_temp\":2.0},"
+                + "{\"id\":\"C05\",\"air_temp\":3.0}]";
+        HttpResponse response = orderedPut(batch, "north", 7000);
+        assertEquals(200, response.getStatus());
+        JsonArray statuses = JsonParser.parseString(new String(response.getBody())).getAsJsonArray();
+        assertEquals(201, statuses.get(0).getAsJsonObject().get("status").getAsInt());
+        assertEquals(201, statuses.get(2).getAsJsonObject().get("status").getAsInt());
+
+        try (Socket socket = new Socket("localhost", 4568)) {
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /?id=C05 HTTP/1.1\r\n\r\n".getBytes());
+            out.flush();
+            HttpResponse station = HttpResponse.readFrom(new BufferedInputStream(socket.getInputStream()));
+            JsonObject c05 = JsonParser.parseString(new String(station.getBody())).getAsJsonArray().get(0).getAsJsonObject();
+            assertEquals(3.0, c05.get("air_temp").getAsDouble());
+        }
+    }
+
+    @Test
+    void testDeleteRemovesOnlyTheSendersEarlierReading() throws IOException {
+        assertEquals(200, orderedPut("{\"id\":\"C07\",\"air_temp\":7.0}", "north", 8000).getStatus());
+        assertEquals(204, delete("C07", "south", 8001).getStatus()); // Not its station
+        assertEquals(204, delete("C07", "north", 7999).getStatus()); // Sent before the reading
+        assertTrue(new String(get(null).getBody()).contains("\"C07\""));
+
+        assertEquals(204, delete("C07", "north", 8001).getStatus());
+        assertFalse(new String(get(null).getBody()).contains("\"C07\""));
+        assertEquals(204, delete("C07", "north", 8001).getStatus()); // A retry
+        assertEquals(400, delete("C07", "", 8002).getStatus());
+    }
+
+    private HttpResponse delete(String id, String serverId, int clock) throws IOException {
+        try (Socket socket = new Socket("localhost", 4568)) {
+            OutputStream out = socket.getOutputStream();
+            String request = "DELETE /?id=" + id + " HTTP/1.1\r\n"
+                    + "Lamport-Clock: " + clock + "\r\n"
+                    + (serverId.isEmpty() ? "" : "Content-Server-Id: " + serverId + "\r\n")
+                    + "\r\n";
+            out.write(request.getBytes());
+            out.flush();
+            return HttpResponse.readFrom(new BufferedInputStream(socket.getInputStream()));
+        }
+    }
+
+    private HttpResponse orderedPut(String body, String serverId, int clock) throws IOException {
+        try (Socket socket = new Socket("localhost", 4568)) {
+            OutputStream out = socket.getOutputStream();
+            byte[] bodyBytes = body.getBytes("UTF-8");
+            String head = "PUT /weather.json HTTP/1.1\r\n"
+                    + "Content-Type: application/json\r\n"
+                    + "Content-Length: " + bodyBytes.length + "\r\n"
+                    + "Lamport-Clock: " + clock + "\r\n"
+                    + "Content-Server-Id: " + serverId + "\r\n"
+                    + "\r\n";
+            out.write(head.getBytes());
+            out.write(bodyBytes);
+            out.flush();
+            return HttpResponse.readFrom(new BufferedInputStream(socket.getInputStream()));
+        }
+    }
+
+    private HttpResponse put(String body, String contentType) throws IOException {
+        try (Socket socket = new Socket("localhost", 4568)) {
+            OutputStream out = socket.getOutputStream();
+            byte[] bodyBytes = body.getBytes("UTF-8");
+            String head = "PUT /weather.json HTTP/1.1\r\n"
+                    + "Content-Type: " + contentType + "\r\n"
+                    + "Content-Length: " + bodyBytes.length + "\r\n"
+                    + "Lamport-Clock: 1\r\n"
+                    + "\r\n";
+            out.write(head.getBytes());
+            out.write(bodyBytes);
+            out.flush();
+            return HttpResponse.readFrom(new BufferedInputStream(socket.getInputStream()));
+        }
+    }
+
+    private HttpResponse get(String ifNoneMatch) throws IOException {
+        try (Socket socket = new Socket("localhost", 4568)) {
+            OutputStream out = socket.getOutputStream();
+            String request = "GET /weather.json HTTP/1.1\r\n"
+                    + "Lamport-Clock: 1\r\n"
+                    + (ifNoneMatch == null ? "" : "If-None-Match: " + ifNoneMatch + "\r\n")
+                    + "\r\n";
+            out.write(request.getBytes());
+            out.flush();
+            return HttpResponse.readFrom(new BufferedInputStream(socket.getInputStream()));
+        }
+    }
+
+    @Test
+    void testVirtualThreadExecutorRunsTasks() throws Exception {
+        java.util.concurrent.ExecutorService executor = AggregationServer.newVirtualThreadExecutor();
+        try {
+            assertEquals("done", executor.submit(() -> "done").get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     private void sendPutRequest(String jsonData, int clockValue) throws IOException {
         Socket socket = new Socket("localhost", 4568);
         PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
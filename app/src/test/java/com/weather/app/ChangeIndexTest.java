@@ -0,0 +1,141 @@
+package com.weather.app;
+
+import com.google.gson.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChangeIndexTest {
+
+    @Test
+    void testSinceReturnsOnlyNewerWritesAndRemovals() {
+        LamportClock clock = new LamportClock();
+        ChangeIndex index = new ChangeIndex(clock, 100);
+        StationStore store = new StationStore(100);
+        store.addListener(index);
+
+        put(store, index, "A", 1.0);
+        put(store, index, "B", 2.0);
+        long cursor = index.since(0, store).clock;
+        put(store, index, "A", 3.0);
+        store.remove("B");
+        put(store, index, "C", 4.0);
+
+        ChangeIndex.Delta delta = index.since(cursor, store);
+        assertFalse(delta.full);
+        assertEquals(Arrays.asList("A", "C"), ids(delta.stations));
+        assertEquals(3.0, delta.stations.get(0).data().number("air_temp"));
+        assertEquals(Collections.singletonList("B"), delta.removed);
+        assertEquals(clock.getClock(), delta.clock);
+        assertTrue(index.since(delta.clock, store).isEmpty());
+    }
+
+    @Test
+    void testInFlightWriteHoldsBackTheClock() {
+        LamportClock clock = new LamportClock();
+        ChangeIndex index = new ChangeIndex(clock, 100);
+        StationStore store = new StationStore(100);
+        store.addListener(index);
+
+        long slow = index.begin(); // Stamped but not yet applied
+        put(store, index, "B", 2.0);
+
+        ChangeIndex.Delta delta = index.since(0, store);
+        assertEquals(slow - 1, delta.clock);
+        assertTrue(delta.stations.isEmpty());
+
+        store.put(record("A", 1.0, slow));
+        index.end(slow);
+        assertEquals(Arrays.asList("A", "B"), ids(index.since(delta.clock, store).stations));
+    }
+
+    @Test
+    void testForgottenRemovalsForceFullResync() {
+        LamportClock clock = new LamportClock();
+        ChangeIndex index = new ChangeIndex(clock, 2);
+        StationStore store = new StationStore(100);
+        store.addListener(index);
+
+        put(store, index, "A", 1.0);
+        long cursor = index.since(0, store).clock;
+        for (String id : Arrays.asList("X", "Y", "Z")) {
+            put(store, index, id, 0.0);
+            store.remove(id);
+        }
+        assertEquals(2, index.tombstones());
+
+        ChangeIndex.Delta delta = index.since(cursor, store); // X's removal was forgotten
+        assertTrue(delta.full);
+        assertEquals(Collections.singletonList("A"), ids(delta.stations));
+
+        JsonObject json = JsonParser.parseString(ChangeIndex.toJson(delta)).getAsJsonObject();
+        assertTrue(json.get("full").getAsBoolean());
+        assertEquals(delta.clock, json.get("clock").getAsLong());
+        assertEquals(1, json.getAsJsonArray("stations").size());
+    }
+
+    @Test
+    void testTruncateAfterRecovery() {
+        LamportClock clock = new LamportClock();
+        ChangeIndex index = new ChangeIndex(clock, 100);
+        StationStore store = new StationStore(100);
+        store.addListener(index);
+        store.put(record("A", 1.0, 40)); // Recovered with its original write time
+
+        assertEquals(40, index.latest());
+        clock.update(index.latest());
+        index.truncate();
+
+        assertTrue(index.since(10, store).full);
+        long time = put(store, index, "B", 2.0);
+        assertTrue(time > 40);
+        assertEquals(Collections.singletonList("B"), ids(index.since(clock.getClock() - 1, store).stations));
+    }
+
+    @Test
+    void testRemovalStampedAfterARewriteIsDropped() {
+        LamportClock clock = new LamportClock();
+        ChangeIndex index = new ChangeIndex(clock, 100);
+        StationStore store = new StationStore(100);
+
+        put(store, index, "A", 1.0);
+        StationRecord removed = store.remove("A"); // Not listening yet: the removal is stamped by hand below
+        store.addListener(index);
+        put(store, index, "A", 2.0);
+        index.afterRemoval(removed);
+
+        ChangeIndex.Delta delta = index.since(0, store);
+        assertEquals(Collections.singletonList("A"), ids(delta.stations));
+        assertEquals(2.0, delta.stations.get(0).data().number("air_temp"));
+        assertTrue(delta.removed.isEmpty());
+        assertEquals(0, index.tombstones());
+    }
+
+    private long put(StationStore store, ChangeIndex index, String id, double airTemp) {
+        long time = index.begin();
+        try {
+            store.put(record(id, airTemp, time));
+        } finally {
+            index.end(time);
+        }
+        return time;
+    }
+
+    private StationRecord record(String id, double airTemp, long lamport) {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", id);
+        json.addProperty("air_temp", airTemp);
+        json.addProperty("lamport", lamport);
+        return new StationRecord(json);
+    }
+
+    private List<String> ids(List<StationRecord> records) {
+        List<String> ids = new ArrayList<>();
+        for (StationRecord record : records) {
+            ids.add(record.getId());
+        }
+        return ids;
+    }
+}
@@ -127,6 +127,72 @@ class ContentServerTest {
 
 
 
+    @Test
+
+    void testContentServerPipelinesSeveralFiles() throws IOException {
+
+        File first = File.createTempFile("station", ".txt");
+
+        File second = File.createTempFile("station", ".txt");
+
+        first.deleteOnExit();
+
+        second.deleteOnExit();
+
+        try (PrintWriter writer = new PrintWriter(new FileWriter(first))) {
+
+            writer.println("id:PIPE1");
+
+            writer.println("name:Pipeline One");
+
+        }
+
+        try (PrintWriter writer = new PrintWriter(new FileWriter(second))) {
+
+            writer.println("id:PIPE2");
+
+            writer.println("name:Pipeline Two");
+
+        }
+
+
+
+        ContentServer.sendDataPipelined("localhost:4568", java.util.Arrays.asList(first.getPath(), second.getPath()));
+
+
+
+        Socket socket = new Socket("localhost", 4568);
+
+        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+        out.println("GET /weather.json HTTP/1.1");
+
+        out.println("Lamport-Clock: 3");
+
+        out.println();
+
+        StringBuilder responseBody = new StringBuilder();
+
+        String line;
+
+        while ((line = in.readLine()) != null) {
+
+            responseBody.append(line);
+
+        }
+
+        assertTrue(responseBody.toString().contains("Pipeline One"));
+
+        assertTrue(responseBody.toString().contains("Pipeline Two"));
+
+        socket.close();
+
+    }
+
+
+
     @Test
 
     void testContentServerInvalidFileFormat() throws IOException {
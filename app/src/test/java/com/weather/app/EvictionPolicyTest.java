@@ -0,0 +1,87 @@
+package com.weather.app;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EvictionPolicyTest {
+
+    @Test
+    void testLruEvictsLeastRecentlyUsed() {
+        StationStore store = new StationStore(3, Long.MAX_VALUE, EvictionPolicy.named("lru"));
+        store.put(record("A"));
+        store.put(record("B"));
+        store.put(record("C"));
+        store.put(record("A")); // Update makes A the most recent
+        store.get("B"); // So does a read
+        store.put(record("D"));
+
+        assertEquals(new HashSet<>(Arrays.asList("A", "B", "D")), ids(store));
+        assertEquals(1, store.evictions());
+    }
+
+    @Test
+    void testLfuEvictsLeastFrequentlyUsed() {
+        StationStore store = new StationStore(3, Long.MAX_VALUE, EvictionPolicy.named("lfu"));
+        store.put(record("A"));
+        store.put(record("B"));
+        store.put(record("C"));
+        store.get("A");
+        store.get("A");
+        store.get("C");
+        store.put(record("D")); // B has never been used
+
+        assertEquals(new HashSet<>(Arrays.asList("A", "C", "D")), ids(store));
+        store.put(record("E")); // D has no uses yet, C one, A two
+        assertEquals(new HashSet<>(Arrays.asList("A", "C", "E")), ids(store));
+    }
+
+    @Test
+    void testByteBudgetIsEnforced() {
+        long recordBytes = record("A").estimatedBytes();
+        StationStore store = new StationStore(100, recordBytes * 2, EvictionPolicy.named("fifo"));
+        for (String id : Arrays.asList("A", "B", "C", "D")) {
+            store.put(record(id));
+        }
+
+        assertEquals(new HashSet<>(Arrays.asList("C", "D")), ids(store));
+        assertTrue(store.estimatedBytes() <= recordBytes * 2);
+        assertEquals(2, store.evictions());
+        store.remove("C");
+        assertEquals(recordBytes, store.estimatedBytes());
+    }
+
+    @Test
+    void testTtlOnlyNeverEvicts() {
+        StationStore store = new StationStore(2, Long.MAX_VALUE, EvictionPolicy.named("ttl"));
+        for (int i = 0; i < 10; i++) {
+            store.put(record("S" + i));
+        }
+
+        assertEquals(10, store.size());
+        assertEquals(0, store.evictions());
+    }
+
+    @Test
+    void testUnknownPolicyIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> EvictionPolicy.named("random"));
+    }
+
+    private Set<String> ids(StationStore store) {
+        Set<String> ids = new HashSet<>();
+        for (StationRecord record : store.snapshot()) {
+            ids.add(record.getId());
+        }
+        return ids;
+    }
+
+    private StationRecord record(String id) {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", id);
+        json.addProperty("air_temp", 13.3);
+        return new StationRecord(json);
+    }
+}
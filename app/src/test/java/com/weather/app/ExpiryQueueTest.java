@@ -0,0 +1,110 @@
+package com.weather.app;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpiryQueueTest {
+
+    @Test
+    void testStationsWithoutOriginExpireIndividually() {
+        StationStore store = new StationStore(100);
+        ExpiryQueue expiry = new ExpiryQueue(30_000);
+        store.addListener(expiry);
+        store.put(record("A", 1_000));
+        store.put(record("B", 5_000));
+        store.put(record("C", 20_000));
+
+        assertTrue(expiry.expire(store, 31_000).isEmpty()); // A is due only once strictly past its deadline
+        List<StationRecord> expired = expiry.expire(store, 35_500);
+
+        assertEquals(2, expired.size());
+        assertNull(store.get("A"));
+        assertNull(store.get("B"));
+        assertNotNull(store.get("C"));
+        assertEquals(1, expiry.size());
+    }
+
+    @Test
+    void testRefreshMovesDeadline() {
+        StationStore store = new StationStore(100);
+        ExpiryQueue expiry = new ExpiryQueue(30_000);
+        store.addListener(expiry);
+        store.put(record("A", 1_000));
+        store.put(record("A", 25_000));
+
+        assertTrue(expiry.expire(store, 40_000).isEmpty());
+        assertEquals(1, expiry.size());
+        assertEquals(1, expiry.expire(store, 60_000).size());
+        assertEquals(0, expiry.size());
+    }
+
+    @Test
+    void testRemovedStationsLeaveTheQueue() {
+        StationStore store = new StationStore(1);
+        ExpiryQueue expiry = new ExpiryQueue(30_000);
+        store.addListener(expiry);
+        store.put(record("A", 1_000));
+        store.put(record("B", 2_000)); // Evicts A
+
+        assertEquals(1, expiry.size());
+        store.remove("B");
+        assertEquals(0, expiry.size());
+    }
+
+    @Test
+    void testHeartbeatExtendsAllStationsOfServer() {
+        StationStore store = new StationStore(100);
+        ExpiryQueue expiry = new ExpiryQueue(30_000);
+        store.addListener(expiry);
+        store.put(record("A", "north", 1_000));
+        store.put(record("B", "north", 2_000));
+        store.put(record("C", "south", 1_000));
+
+        assertEquals(2, expiry.heartbeat("north", 20_000));
+        assertEquals(0, expiry.heartbeat("unknown", 20_000));
+        List<StationRecord> expired = expiry.expire(store, 40_000);
+
+        assertEquals(1, expired.size());
+        assertEquals("C", expired.get(0).getId());
+        assertNotNull(store.get("A"));
+        assertNotNull(store.get("B"));
+        assertEquals(1, expiry.servers());
+    }
+
+    @Test
+    void testSilentServerDropsAllStationsTogether() {
+        StationStore store = new StationStore(100);
+        ExpiryQueue expiry = new ExpiryQueue(30_000);
+        store.addListener(expiry);
+        for (int i = 0; i < 10; i++) {
+            store.put(record("S" + i, "north", 1_000 + i));
+        }
+        store.put(record("S0", "south", 25_000)); // Moves to another server
+
+        List<StationRecord> expired = expiry.expire(store, 40_000);
+
+        assertEquals(9, expired.size());
+        assertEquals(1, store.size());
+        assertEquals("south", store.get("S0").getOrigin());
+        assertEquals(1, expiry.servers());
+    }
+
+    private StationRecord record(String id, long timestamp) {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", id);
+        json.addProperty("timestamp", timestamp);
+        return new StationRecord(json);
+    }
+
+    private StationRecord record(String id, String origin, long timestamp) {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", id);
+        json.addProperty("origin", origin);
+        json.addProperty("timestamp", timestamp);
+        return new StationRecord(json);
+    }
+}
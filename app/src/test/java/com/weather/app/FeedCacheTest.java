@@ -0,0 +1,59 @@
+package com.weather.app;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FeedCacheTest {
+
+    @Test
+    void testFeedIsReusedUntilStoreChanges() {
+        StationStore store = new StationStore(10);
+        FeedCache cache = new FeedCache(store);
+        store.put(record("A"));
+
+        FeedCache.Feed first = cache.get();
+        assertSame(first, cache.get());
+
+        store.put(record("B"));
+        FeedCache.Feed second = cache.get();
+        assertNotSame(first, second);
+        assertNotEquals(first.etag, second.etag);
+        assertTrue(new String(second.body, StandardCharsets.UTF_8).contains("\"B\""));
+    }
+
+    @Test
+    void testFeedBuiltDuringWriteIsNotReusedAfterIt() {
+        StationStore store = new StationStore(10);
+        FeedCache cache = new FeedCache(store);
+        // Stands in for a GET that lands while the write is still inside the store
+        store.addListener(new StationStore.Listener() {
+            @Override
+            public void stationPut(StationRecord record, StationRecord previous) {
+                cache.get();
+            }
+        });
+        store.put(record("A"));
+
+        assertTrue(new String(cache.get().body, StandardCharsets.UTF_8).contains("\"A\""));
+    }
+
+    @Test
+    void testIfNoneMatch() {
+        assertTrue(FeedCache.matches("\"x-1\"", "\"x-1\""));
+        assertTrue(FeedCache.matches("\"x-0\", W/\"x-1\"", "\"x-1\""));
+        assertTrue(FeedCache.matches("*", "\"x-1\""));
+        assertFalse(FeedCache.matches("\"x-0\"", "\"x-1\""));
+        assertFalse(FeedCache.matches(null, "\"x-1\""));
+    }
+
+    private static StationRecord record(String id) {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", id);
+        json.addProperty("timestamp", 1);
+        return new StationRecord(json);
+    }
+}
@@ -0,0 +1,57 @@
+package com.weather.app;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashRingTest {
+
+    private static final List<String> SHARDS = Arrays.asList("localhost:4567", "localhost:4577", "localhost:4587", "localhost:4597");
+
+    @Test
+    void testPlacementIgnoresShardOrderAndSpelling() {
+        HashRing ring = new HashRing(SHARDS);
+        List<String> reversed = new ArrayList<>(SHARDS);
+        Collections.reverse(reversed);
+        HashRing other = HashRing.parse("http://" + String.join("/,http://", reversed) + "/");
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(ring.owner("IDS" + i), other.owner("IDS" + i));
+        }
+    }
+
+    @Test
+    void testStationsSpreadEvenly() {
+        HashRing ring = new HashRing(SHARDS);
+        Map<String, Integer> counts = new HashMap<>();
+        int stations = 20_000;
+        for (int i = 0; i < stations; i++) {
+            counts.merge(ring.owner("IDS" + i), 1, Integer::sum);
+        }
+        assertEquals(SHARDS.size(), counts.size());
+        for (int count : counts.values()) {
+            int fair = stations / SHARDS.size();
+            assertTrue(Math.abs(count - fair) < fair * 0.3, "Uneven spread: " + counts);
+        }
+    }
+
+    @Test
+    void testAddingShardOnlyMovesStationsToIt() {
+        HashRing before = new HashRing(SHARDS);
+        List<String> grown = new ArrayList<>(SHARDS);
+        grown.add("localhost:4607");
+        HashRing after = new HashRing(grown);
+
+        int stations = 20_000;
+        int moved = 0;
+        for (int i = 0; i < stations; i++) {
+            String id = "IDS" + i;
+            if (!before.owner(id).equals(after.owner(id))) {
+                assertEquals("localhost:4607", after.owner(id));
+                moved++;
+            }
+        }
+        assertTrue(moved > stations / 10 && moved < stations * 3 / 10, "Moved " + moved); // About a fifth
+    }
+}
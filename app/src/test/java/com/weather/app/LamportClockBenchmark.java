@@ -0,0 +1,84 @@
+package com.weather.app;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Compares LamportClock with the synchronized clock it replaced, for the calls the server makes per request:
+// stamping a response (tick then read) and merging a client's clock (update then read).
+// Not a test; run main by hand, see the README. Arguments are thread counts, default 1 2 4 8 16 32 64.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LamportClockBenchmark {
+
+    private final LamportClock lockFree = new LamportClock();
+    private final SynchronizedClock synchronizedClock = new SynchronizedClock();
+
+    @Benchmark
+    public long lockFreeTick() {
+        return lockFree.tickAndGet();
+    }
+
+    @Benchmark
+    public long synchronizedTick() {
+        synchronizedClock.tick();
+        return synchronizedClock.getClock();
+    }
+
+    // Clients are usually behind the server, occasionally ahead
+    @Benchmark
+    public long lockFreeUpdate() {
+        return lockFree.updateAndGet(receivedClock(lockFree.getClock()));
+    }
+
+    @Benchmark
+    public long synchronizedUpdate() {
+        synchronizedClock.update(receivedClock(synchronizedClock.getClock()));
+        return synchronizedClock.getClock();
+    }
+
+    private static long receivedClock(long current) {
+        return current + ThreadLocalRandom.current().nextInt(-64, 4);
+    }
+
+    // The clock as it was before: every operation takes the monitor, and reading the value is a separate call
+    static class SynchronizedClock {
+        private int clock = 0;
+
+        public synchronized void tick() {
+            clock++;
+        }
+
+        public synchronized void update(long receivedClock) {
+            clock = (int) Math.max(clock, receivedClock) + 1;
+        }
+
+        public synchronized int getClock() {
+            return clock;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] threadCounts = {1, 2, 4, 8, 16, 32, 64};
+        if (args.length > 0) {
+            threadCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                threadCounts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        for (int threads : threadCounts) {
+            Options options = new OptionsBuilder()
+                    .include(LamportClockBenchmark.class.getName() + "\\.")
+                    .threads(threads)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
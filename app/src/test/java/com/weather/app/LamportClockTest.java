@@ -2,6 +2,9 @@ package com.weather.app;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.*;
+import java.util.concurrent.*;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 
@@ -64,4 +67,85 @@ class LamportClockTest {
 
     }
 
+
+
+    @Test
+
+    void testAndGetReturnTheirOwnEvent() {
+
+        LamportClock clock = new LamportClock();
+
+        assertEquals(1, clock.tickAndGet());
+
+        assertEquals(11, clock.updateAndGet(10));
+
+        assertEquals(12, clock.updateAndGet(3)); // Already ahead, so just a tick
+
+    }
+
+
+
+    @Test
+
+    void testClockGoesBeyondIntRange() {
+
+        LamportClock clock = new LamportClock();
+
+        clock.update(Integer.MAX_VALUE);
+
+        assertEquals(Integer.MAX_VALUE + 2L, clock.tickAndGet());
+
+    }
+
+
+
+    @Test
+
+    void testConcurrentTicksAreUnique() throws Exception {
+
+        LamportClock clock = new LamportClock();
+
+        int threads = 8;
+
+        int ticks = 10_000;
+
+        Set<Long> seen = ConcurrentHashMap.newKeySet();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+
+            int offset = t;
+
+            futures.add(executor.submit(() -> {
+
+                for (int i = 0; i < ticks; i++) {
+
+                    long time = i % 100 == 0 ? clock.updateAndGet(offset * 1000L + i) : clock.tickAndGet();
+
+                    assertTrue(seen.add(time), "Duplicate time " + time);
+
+                }
+
+            }));
+
+        }
+
+        for (Future<?> future : futures) {
+
+            future.get();
+
+        }
+
+        executor.shutdown();
+
+        assertEquals(threads * ticks, seen.size());
+
+        assertEquals(Collections.max(seen).longValue(), clock.getClock());
+
+    }
+
+
 }
\ No newline at end of file
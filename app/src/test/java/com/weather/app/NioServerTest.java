@@ -0,0 +1,205 @@
+package com.weather.app;
+import org.junit.jupiter.api.*;
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class NioServerTest {
+
+    private static final int PORT = 4570;
+    private static Thread serverThread;
+
+    @BeforeAll
+    static void startServer() {
+        serverThread = new Thread(() -> {
+            try {
+                AggregationServer.main(new String[] { String.valueOf(PORT), "nio" });
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        // Give some time for the server to start
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    void testPutAndGetRequest() throws IOException {
+        String jsonData = "{ \"id\": \"NIO1\", \"name\": \"Nio Station\", \"state\": \"Nio State\" }";
+        try (Socket socket = new Socket("localhost", PORT)) {
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+            out.println("PUT /weather.json HTTP/1.1");
+            out.println("Host: localhost");
+            out.println("Content-Type: application/json");
+            out.println("Content-Length: " + jsonData.length());
+            out.println("Lamport-Clock: 7");
+            out.println();
+            out.println(jsonData);
+
+            assertTrue(in.readLine().contains("200"));
+            String clockHeader = in.readLine();
+            assertTrue(clockHeader.startsWith("Lamport-Clock"));
+            assertTrue(Integer.parseInt(clockHeader.split(":")[1].trim()) >= 7);
+        }
+
+        String body = get();
+        assertTrue(body.contains("Nio Station"));
+    }
+
+    @Test
+    void testRejectedRequestsCarryLamportClock() throws IOException {
+        for (String contentLength : Arrays.asList("abc", String.valueOf(HttpRequest.MAX_BODY_BYTES + 1))) {
+            try (Socket socket = new Socket("localhost", PORT)) {
+                OutputStream out = socket.getOutputStream();
+                out.write(("PUT /weather.json HTTP/1.1\r\nContent-Length: " + contentLength + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                HttpResponse response = HttpResponse.readFrom(new BufferedInputStream(socket.getInputStream()));
+                assertEquals(contentLength.equals("abc") ? 400 : 413, response.getStatus());
+                assertNotNull(response.getHeader("Lamport-Clock"));
+            }
+        }
+    }
+
+    @Test
+    void testRequestSplitAcrossManyWrites() throws Exception {
+        String jsonData = "{ \"id\": \"NIO2\", \"name\": \"Fragmented Station\" }";
+        String request = "PUT /weather.json HTTP/1.1\r\n"
+                + "Content-Type: application/json\r\n"
+                + "Content-Length: " + jsonData.length() + "\r\n"
+                + "Lamport-Clock: 1\r\n"
+                + "\r\n"
+                + jsonData;
+
+        try (Socket socket = new Socket("localhost", PORT)) {
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            byte[] bytes = request.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < bytes.length; i += 5) {
+                out.write(bytes, i, Math.min(5, bytes.length - i));
+                out.flush();
+                Thread.sleep(2);
+            }
+            assertTrue(in.readLine().contains("200"));
+        }
+
+        assertTrue(get().contains("Fragmented Station"));
+    }
+
+    @Test
+    void testIdleConnectionsDoNotBlockOthers() throws IOException {
+        // Far more half-open connections than the blocking front end has threads
+        List<Socket> idle = new ArrayList<>();
+        try {
+            for (int i = 0; i < 50; i++) {
+                Socket socket = new Socket("localhost", PORT);
+                socket.getOutputStream().write("GET / HTTP/1.1\r\n".getBytes(StandardCharsets.UTF_8));
+                idle.add(socket);
+            }
+            assertNotNull(get());
+        } finally {
+            for (Socket socket : idle) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    void testPipelinedKeepAliveRequests() throws IOException {
+        StringBuilder requests = new StringBuilder();
+        for (int i = 0; i < 3; i++) {
+            String jsonData = "{ \"id\": \"NIOP" + i + "\", \"name\": \"Pipelined " + i + "\" }";
+            requests.append("PUT /weather.json HTTP/1.1\r\n")
+                    .append("Content-Length: ").append(jsonData.length()).append("\r\n")
+                    .append("Lamport-Clock: 1\r\n")
+                    .append("Connection: keep-alive\r\n")
+                    .append("\r\n")
+                    .append(jsonData);
+        }
+
+        try (Socket socket = new Socket("localhost", PORT)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(requests.toString().getBytes(StandardCharsets.UTF_8));
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            for (int i = 0; i < 3; i++) {
+                HttpResponse response = HttpResponse.readFrom(in);
+                assertEquals(200, response.getStatus());
+                assertTrue(response.isKeepAlive());
+            }
+        }
+
+        String body = get();
+        assertTrue(body.contains("Pipelined 0"));
+        assertTrue(body.contains("Pipelined 2"));
+    }
+
+    @Test
+    void testLongPollsAreParkedWithoutHoldingWorkers() throws Exception {
+        String etag;
+        try (Socket socket = new Socket("localhost", PORT)) {
+            socket.getOutputStream().write("GET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            etag = HttpResponse.readFrom(new BufferedInputStream(socket.getInputStream())).getHeader("ETag");
+        }
+
+        // More waiting requests than there are workers
+        List<Socket> polls = new ArrayList<>();
+        try {
+            for (int i = 0; i < Runtime.getRuntime().availableProcessors() * 2 + 2; i++) {
+                Socket socket = new Socket("localhost", PORT);
+                socket.setSoTimeout(10_000);
+                socket.getOutputStream().write(("GET /?wait=30 HTTP/1.1\r\nIf-None-Match: " + etag + "\r\n\r\n")
+                        .getBytes(StandardCharsets.UTF_8));
+                polls.add(socket);
+            }
+            Thread.sleep(200);
+            assertNotNull(get()); // Still served while every poll waits
+
+            String jsonData = "{ \"id\": \"NIOW\", \"name\": \"Wakes Polls\" }";
+            try (Socket socket = new Socket("localhost", PORT)) {
+                socket.getOutputStream().write(("PUT /weather.json HTTP/1.1\r\nContent-Length: " + jsonData.length()
+                        + "\r\n\r\n" + jsonData).getBytes(StandardCharsets.UTF_8));
+                assertEquals(200, HttpResponse.readFrom(new BufferedInputStream(socket.getInputStream())).getStatus());
+            }
+            for (Socket socket : polls) {
+                HttpResponse response = HttpResponse.readFrom(new BufferedInputStream(socket.getInputStream()));
+                assertEquals(200, response.getStatus());
+                assertNotEquals(etag, response.getHeader("ETag"));
+                assertNotNull(response.getHeader("Lamport-Clock"));
+            }
+        } finally {
+            for (Socket socket : polls) {
+                socket.close();
+            }
+        }
+    }
+
+    private String get() throws IOException {
+        try (Socket socket = new Socket("localhost", PORT)) {
+            socket.setSoTimeout(5000);
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+            out.println("GET /weather.json HTTP/1.1");
+            out.println("Host: localhost");
+            out.println("Lamport-Clock: 2");
+            out.println();
+
+            assertTrue(in.readLine().contains("200"));
+            StringBuilder responseBody = new StringBuilder();
+            String line;
+            while ((line = in.readLine()) != null) {
+                responseBody.append(line);
+            }
+            return responseBody.toString();
+        }
+    }
+}
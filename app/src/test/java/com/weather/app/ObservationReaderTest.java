@@ -0,0 +1,66 @@
+package com.weather.app;
+
+import com.google.gson.JsonParseException;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ObservationReaderTest {
+
+    @Test
+    void testReadsSingleObject() throws IOException {
+        ObservationReader.Result result = read("{\"id\":\"IDS60901\",\"air_temp\":13.3,\"name\":\"Adelaide\"}", false);
+
+        assertFalse(result.batch);
+        assertEquals(1, result.observations.size());
+        assertEquals("IDS60901", result.observations.get(0).json.get("id").getAsString());
+        assertEquals(13.3, result.observations.get(0).json.get("air_temp").getAsDouble());
+    }
+
+    @Test
+    void testReportsInvalidEntriesInBatch() throws IOException {
+        ObservationReader.Result result = read("[{\"id\":\"A\"}, {\"name\":\"no id\"}, 42, {\"id\":\"B\"}]", false);
+
+        assertTrue(result.batch);
+        assertEquals(4, result.observations.size());
+        assertNull(result.observations.get(0).error);
+        assertEquals("missing id", result.observations.get(1).error);
+        assertEquals("entry is not a JSON object", result.observations.get(2).error);
+        assertEquals("B", result.observations.get(3).json.get("id").getAsString());
+    }
+
+    @Test
+    void testReadsNdjson() throws IOException {
+        ObservationReader.Result result = read("{\"id\":\"A\"}\n{\"id\":\"B\"}\r\n\n{\"id\":\"C\"}\n", true);
+
+        assertTrue(result.batch);
+        assertEquals(3, result.observations.size());
+        assertEquals("C", result.observations.get(2).json.get("id").getAsString());
+    }
+
+    @Test
+    void testRejectsMalformedBodies() {
+        assertThrows(JsonParseException.class, () -> read("{ \"id\": }", false));
+        assertThrows(JsonParseException.class, () -> read("\"just a string\"", false));
+        assertThrows(JsonParseException.class, () -> read("{\"id\":\"A\"} {\"id\":\"B\"}", false));
+    }
+
+    @Test
+    void testReadsOnlyTheBoundedBody() throws IOException {
+        byte[] stream = "{\"id\":\"A\"}GET / HTTP/1.1\r\n".getBytes(StandardCharsets.UTF_8);
+        InputStream connection = new ByteArrayInputStream(stream);
+        InputStream body = new HttpRequest.BoundedInputStream(connection, 10);
+
+        ObservationReader.Result result = ObservationReader.read(body, false);
+
+        assertEquals("A", result.observations.get(0).json.get("id").getAsString());
+        assertEquals("GET / HTTP/1.1", HttpRequest.readLine(connection));
+    }
+
+    private ObservationReader.Result read(String body, boolean ndjson) throws IOException {
+        return ObservationReader.read(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), ndjson);
+    }
+}
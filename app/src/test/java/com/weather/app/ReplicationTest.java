@@ -0,0 +1,196 @@
+package com.weather.app;
+
+import com.google.gson.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicationTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testReplicaFollowsPrimaryAndResumesFromCursor() throws Exception {
+        Node primary = new Node(100);
+        Node follower = new Node(100);
+        Path cursor = dir.resolve("cursor");
+        try (ReplicationServer server = new ReplicationServer(0, primary.store, primary.changeIndex, primary.subscriptions)) {
+            Replica replica = follower.follow(server.getPort(), cursor);
+            primary.put("A", 1.0);
+            primary.put("B", 2.0);
+            await(() -> follower.store.size() == 2);
+            primary.store.remove("B");
+            long removedAt = primary.clock.getClock();
+            await(() -> replica.primaryClock() >= removedAt);
+            assertNull(follower.store.get("B"));
+            assertEquals(1.0, follower.store.get("A").data().number("air_temp"));
+            replica.close();
+
+            // Written while the replica was down; a fresh follower resumes from the saved clock
+            primary.put("A", 3.0);
+            primary.put("C", 4.0);
+            long saved = Long.parseLong(new String(Files.readAllBytes(cursor)).trim());
+            assertTrue(saved > 0);
+            Replica restarted = follower.follow(server.getPort(), cursor);
+            await(() -> follower.store.get("C") != null && follower.store.get("A").data().number("air_temp") == 3.0);
+            assertEquals(2, follower.store.size());
+            await(() -> restarted.isConnected() && restarted.lagMillis() < 5_000);
+            assertTrue(server.replicaClocks().size() >= 1);
+            restarted.close();
+        }
+    }
+
+    @Test
+    void testForgottenRemovalsForceFullResync() throws Exception {
+        Node primary = new Node(1);
+        Node follower = new Node(1);
+        Path cursor = dir.resolve("cursor");
+        try (ReplicationServer server = new ReplicationServer(0, primary.store, primary.changeIndex, primary.subscriptions)) {
+            primary.put("A", 1.0);
+            primary.put("B", 2.0);
+            try (Replica replica = follower.follow(server.getPort(), cursor)) {
+                await(() -> follower.store.size() == 2);
+            }
+
+            // Two removals, but the primary only remembers one, so the old cursor needs the whole store
+            primary.store.remove("A");
+            primary.store.remove("B");
+            primary.put("C", 3.0);
+            try (Replica replica = follower.follow(server.getPort(), cursor)) {
+                await(() -> follower.store.size() == 1 && follower.store.get("C") != null);
+            }
+        }
+    }
+
+    // A primary and a replica as separate server processes on localhost: the replica serves the primary's data,
+    // refuses writes and reports its lag
+    @Test
+    void testReplicaServerServesPrimaryData() throws Exception {
+        int primaryPort = freePort();
+        int replicationPort = freePort();
+        int replicaPort = freePort();
+        Process primary = startServer(Files.createDirectory(dir.resolve("primary")), primaryPort,
+                "-Daggregation.replicationPort=" + replicationPort);
+        Process replica = startServer(Files.createDirectory(dir.resolve("replica")), replicaPort,
+                "-Daggregation.replicaOf=localhost:" + replicationPort);
+        try {
+            await(() -> request(primaryPort, "PUT", "{\"id\":\"R01\",\"air_temp\":11.5}") == 200);
+            await(() -> stations(replicaPort).contains("R01"));
+            assertEquals(405, request(replicaPort, "PUT", "{\"id\":\"R02\"}"));
+
+            JsonObject replication = stats(replicaPort).getAsJsonObject("replication");
+            assertEquals("replica", replication.get("role").getAsString());
+            assertTrue(replication.get("connected").getAsBoolean());
+            assertTrue(replication.get("lagMillis").getAsLong() >= 0);
+            assertEquals(1, stats(primaryPort).getAsJsonObject("replication").getAsJsonObject("replicas").size());
+        } finally {
+            replica.destroy();
+            primary.destroy();
+            replica.waitFor();
+            primary.waitFor();
+        }
+    }
+
+    private static class Node {
+        final LamportClock clock = new LamportClock();
+        final StationStore store;
+        final ChangeIndex changeIndex;
+        final Subscriptions subscriptions;
+
+        Node(int maxTombstones) {
+            store = new StationStore(100);
+            changeIndex = new ChangeIndex(clock, maxTombstones);
+            subscriptions = new Subscriptions(store, 10, 10);
+            store.addListener(changeIndex);
+            store.addListener(subscriptions);
+        }
+
+        void put(String id, double airTemp) {
+            long time = changeIndex.begin();
+            try {
+                JsonObject json = new JsonObject();
+                json.addProperty("id", id);
+                json.addProperty("air_temp", airTemp);
+                json.addProperty("lamport", time);
+                store.put(new StationRecord(json));
+            } finally {
+                changeIndex.end(time);
+            }
+        }
+
+        Replica follow(int port, Path cursor) {
+            Replica replica = new Replica("localhost", port, store, changeIndex, clock, cursor, () -> true);
+            replica.start();
+            return replica;
+        }
+    }
+
+    private Process startServer(Path workingDir, int port, String property) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), property,
+                "com.weather.app.AggregationServer", String.valueOf(port))
+                .directory(workingDir.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(workingDir.resolve("server.log").toFile())
+                .start();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static int request(int port, String method, String body) {
+        try (Socket socket = new Socket("localhost", port)) {
+            byte[] bodyBytes = body.getBytes("UTF-8");
+            OutputStream out = socket.getOutputStream();
+            out.write((method + " /weather.json HTTP/1.1\r\n"
+                    + "Content-Type: application/json\r\n"
+                    + "Content-Length: " + bodyBytes.length + "\r\n"
+                    + "\r\n").getBytes());
+            out.write(bodyBytes);
+            out.flush();
+            return HttpResponse.readFrom(new BufferedInputStream(socket.getInputStream())).getStatus();
+        } catch (IOException e) {
+            return -1; // Not up yet
+        }
+    }
+
+    private static String get(int port, String path) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET " + path + " HTTP/1.1\r\n\r\n").getBytes());
+            out.flush();
+            return new String(HttpResponse.readFrom(new BufferedInputStream(socket.getInputStream())).getBody(), "UTF-8");
+        }
+    }
+
+    private static String stations(int port) {
+        try {
+            return get(port, "/");
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    private static JsonObject stats(int port) throws IOException {
+        return JsonParser.parseString(get(port, "/stats")).getAsJsonObject();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for replication");
+            Thread.sleep(50);
+        }
+    }
+}
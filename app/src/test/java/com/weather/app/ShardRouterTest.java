@@ -0,0 +1,184 @@
+package com.weather.app;
+
+import com.google.gson.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Two aggregation servers run as shards in their own processes, with the router in this JVM
+class ShardRouterTest {
+
+    @TempDir
+    static Path dir;
+
+    private static final List<Process> shards = new ArrayList<>();
+    private static final List<Integer> shardPorts = new ArrayList<>();
+    private static HashRing ring;
+    private static int routerPort;
+
+    @BeforeAll
+    static void startCluster() throws Exception {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            int port = freePort();
+            shardPorts.add(port);
+            names.add("localhost:" + port);
+            shards.add(startServer(Files.createDirectory(dir.resolve("shard" + i)), port));
+        }
+        ring = new HashRing(names);
+        routerPort = freePort();
+        Thread router = new Thread(() -> {
+            try {
+                new ShardRouter(ring).run(routerPort);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        router.setDaemon(true);
+        router.start();
+        for (int port : shardPorts) {
+            awaitUp(port);
+        }
+        awaitUp(routerPort);
+    }
+
+    @AfterAll
+    static void stopCluster() throws InterruptedException {
+        for (Process shard : shards) {
+            shard.destroy();
+            shard.waitFor();
+        }
+    }
+
+    @Test
+    void testBatchIsSplitByOwnerAndFeedIsGathered() throws IOException {
+        JsonArray batch = new JsonArray();
+        for (int i = 0; i < 8; i++) {
+            JsonObject station = new JsonObject();
+            station.addProperty("id", "SH" + i);
+            station.addProperty("state", "SA");
+            station.addProperty("air_temp", (double) i);
+            batch.add(station);
+        }
+        batch.add(new JsonObject()); // No id
+        HttpResponse response = request(routerPort, "PUT", "/", batch.toString());
+        assertEquals(200, response.getStatus());
+        JsonArray statuses = JsonParser.parseString(body(response)).getAsJsonArray();
+        for (int i = 0; i < 8; i++) {
+            assertEquals(i, statuses.get(i).getAsJsonObject().get("index").getAsInt());
+            assertEquals(201, statuses.get(i).getAsJsonObject().get("status").getAsInt());
+        }
+        assertEquals(400, statuses.get(8).getAsJsonObject().get("status").getAsInt());
+
+        // Each station lives only on its owner, and the router's feed has them all
+        for (int i = 0; i < 2; i++) {
+            String shardFeed = body(request(shardPorts.get(i), "GET", "/", null));
+            for (int s = 0; s < 8; s++) {
+                boolean owned = ring.owner("SH" + s).equals("localhost:" + shardPorts.get(i));
+                assertEquals(owned, shardFeed.contains("\"SH" + s + "\""), "SH" + s + " on shard " + i);
+            }
+        }
+        String feed = body(request(routerPort, "GET", "/", null));
+        for (int s = 0; s < 8; s++) {
+            assertTrue(feed.contains("\"SH" + s + "\""));
+        }
+        assertEquals(200, request(routerPort, "GET", "/?id=SH3", null).getStatus());
+
+        JsonObject aggregate = JsonParser.parseString(body(request(routerPort, "GET", "/aggregate?field=air_temp&groupBy=state", null)))
+                .getAsJsonObject().getAsJsonObject("groups").getAsJsonObject("SA");
+        assertEquals(8, aggregate.get("count").getAsInt());
+        assertEquals(0.0, aggregate.get("min").getAsDouble());
+        assertEquals(7.0, aggregate.get("max").getAsDouble());
+        assertEquals(3.5, aggregate.get("avg").getAsDouble(), 1e-9);
+        assertEquals(2, JsonParser.parseString(body(request(routerPort, "GET", "/stats", null)))
+                .getAsJsonObject().getAsJsonObject("shards").size());
+    }
+
+    @Test
+    void testShardAwareContentServerWritesToOwners() throws IOException {
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            Path file = dir.resolve("station" + i + ".txt");
+            Files.write(file, Arrays.asList("id:CS" + i, "name:Sharded " + i, "air_temp:" + i));
+            files.add(file.toString());
+        }
+        String cluster = "localhost:" + shardPorts.get(0) + ",localhost:" + shardPorts.get(1);
+        assertTrue(ContentServer.sendDataWithRetry(cluster, files, false, 1));
+
+        for (int i = 0; i < 6; i++) {
+            String owner = ring.owner("CS" + i);
+            int port = Integer.parseInt(owner.substring(owner.indexOf(':') + 1));
+            assertEquals(200, request(port, "GET", "/?id=CS" + i, null).getStatus(), "CS" + i + " on its owner");
+            assertEquals(200, request(routerPort, "GET", "/?id=CS" + i, null).getStatus());
+        }
+    }
+
+    @Test
+    void testMultiStationFileIsBatchedPerOwner() throws IOException {
+        Path file = dir.resolve("stations.txt");
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            lines.addAll(Arrays.asList("id:MS" + i, "name:Multi " + i, "air_temp:" + i));
+        }
+        Files.write(file, lines);
+        String cluster = "localhost:" + shardPorts.get(0) + ",localhost:" + shardPorts.get(1);
+        assertTrue(ContentServer.sendDataWithRetry(cluster, Collections.singletonList(file.toString()), true, 1));
+
+        for (int i = 0; i < 50; i++) {
+            String owner = ring.owner("MS" + i);
+            int port = Integer.parseInt(owner.substring(owner.indexOf(':') + 1));
+            assertTrue(body(request(port, "GET", "/?id=MS" + i, null)).contains("Multi " + i + "\""), "MS" + i + " on its owner");
+        }
+    }
+
+    private static Process startServer(Path workingDir, int port) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "-Daggregation.maxEntries=1000",
+                "com.weather.app.AggregationServer", String.valueOf(port))
+                .directory(workingDir.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(workingDir.resolve("server.log").toFile())
+                .start();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void awaitUp(int port) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (true) {
+            try (Socket socket = new Socket("localhost", port)) {
+                return;
+            } catch (IOException e) {
+                assertTrue(System.currentTimeMillis() < deadline, "Server on port " + port + " did not start");
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static HttpResponse request(int port, String method, String path, String body) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            byte[] bodyBytes = body == null ? new byte[0] : body.getBytes("UTF-8");
+            OutputStream out = socket.getOutputStream();
+            out.write((method + " " + path + " HTTP/1.1\r\n"
+                    + (body == null ? "" : "Content-Type: application/json\r\nContent-Length: " + bodyBytes.length + "\r\n")
+                    + "\r\n").getBytes());
+            out.write(bodyBytes);
+            out.flush();
+            return HttpResponse.readFrom(new BufferedInputStream(socket.getInputStream()));
+        }
+    }
+
+    private static String body(HttpResponse response) throws UnsupportedEncodingException {
+        return new String(response.getBody(), "UTF-8");
+    }
+}
@@ -0,0 +1,91 @@
+package com.weather.app;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotFileTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testRoundTripKeepsOrderAndValues() throws Exception {
+        JsonObject first = JsonParser.parseString("{\"id\":\"IDS60901\",\"name\":\"Adelaide\",\"air_temp\":\"13.3\","
+                + "\"lat\":-34.9,\"rel_hum\":60,\"raining\":false,\"note\":null,\"origin\":\"/127.0.0.1:5000\","
+                + "\"timestamp\":1727954058633}").getAsJsonObject();
+        JsonObject second = JsonParser.parseString("{\"id\":\"002\",\"tags\":[\"a\",\"b\"],\"timestamp\":5}").getAsJsonObject();
+
+        Path path = directory.resolve("weatherData.snap");
+        SnapshotFile.write(path, Arrays.asList(new StationRecord(first), new StationRecord(second)));
+
+        List<StationRecord> records = SnapshotFile.read(path);
+        assertEquals(2, records.size());
+        assertEquals("IDS60901", records.get(0).getId());
+        assertEquals(1727954058633L, records.get(0).getTimestamp());
+        assertEquals("002", records.get(1).getId());
+        assertEquals(first, records.get(0).json());
+        assertEquals(second, records.get(1).json());
+    }
+
+    @Test
+    void testRecordsAreMaterializedLazily() throws Exception {
+        JsonObject station = JsonParser.parseString("{\"id\":\"001\",\"name\":\"Lazy\",\"timestamp\":7}").getAsJsonObject();
+        Path path = directory.resolve("weatherData.snap");
+        SnapshotFile.write(path, Collections.singletonList(new StationRecord(station)));
+
+        StationRecord record = SnapshotFile.read(path).get(0);
+        assertFalse(record.isMaterialized());
+
+        // Rewriting an untouched record copies its bytes without decoding it
+        Path copy = directory.resolve("copy.snap");
+        SnapshotFile.write(copy, Collections.singletonList(record));
+        assertFalse(record.isMaterialized());
+
+        assertEquals("Lazy", SnapshotFile.read(copy).get(0).json().get("name").getAsString());
+        assertTrue(record.json().has("name"));
+        assertTrue(record.isMaterialized());
+    }
+
+    @Test
+    void testListenersReadLoadedRecordsWithoutDecodingThem() throws Exception {
+        JsonObject station = JsonParser.parseString("{\"id\":\"001\",\"state\":\"SA\",\"time_zone\":\"CST\","
+                + "\"lat\":-34.9,\"air_temp\":\"13.3\",\"rel_hum\":60,\"origin\":\"content-1\",\"origin_clock\":4,"
+                + "\"lamport\":9,\"timestamp\":7}").getAsJsonObject();
+        Path path = directory.resolve("weatherData.snap");
+        SnapshotFile.write(path, Collections.singletonList(new StationRecord(station)));
+
+        StationStore store = new StationStore(10);
+        StationIndex index = new StationIndex();
+        StationAggregates aggregates = new StationAggregates();
+        store.addListener(index);
+        store.addListener(new ExpiryQueue(30_000));
+        store.addListener(new StationHistory(60_000, 10));
+        store.addListener(aggregates);
+        store.addListener(new ChangeIndex(new LamportClock(), 10));
+        StationRecord record = SnapshotFile.read(path).get(0);
+        store.put(record);
+
+        assertFalse(record.isMaterialized());
+        assertEquals(Collections.singleton("001"), index.withState("sa"));
+        assertEquals(Collections.singletonList("001"), index.withLatitudeBetween(-35, -34));
+        assertEquals("content-1", record.getOrigin());
+        assertEquals(4, record.getOriginClock());
+        assertEquals(9, record.getLamportTime());
+        assertEquals(13.3, record.number("air_temp"));
+        assertEquals("60", record.text("rel_hum"));
+        assertFalse(record.isMaterialized());
+
+        // Once decoded, the same accessors answer from the WeatherData
+        record.data();
+        assertEquals("content-1", record.getOrigin());
+        assertEquals(9, record.getLamportTime());
+        assertEquals(13.3, record.number("air_temp"));
+    }
+}
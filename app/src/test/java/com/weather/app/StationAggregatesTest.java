@@ -0,0 +1,122 @@
+package com.weather.app;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StationAggregatesTest {
+
+    @Test
+    void testCurrentReadingsPerGroup() {
+        StationAggregates aggregates = new StationAggregates();
+        StationStore store = new StationStore(100);
+        store.addListener(aggregates);
+        store.put(record("A", "SA", 1_000, 10.0));
+        store.put(record("B", "SA", 1_000, 20.0));
+        store.put(record("C", "VIC", 1_000, 5.0));
+
+        Map<String, StationAggregates.Result> byState = aggregates.query("air_temp", "state", 0, 2_000);
+        assertEquals(Arrays.asList("SA", "VIC"), new ArrayList<>(byState.keySet()));
+        assertEquals(2, byState.get("SA").count);
+        assertEquals(10.0, byState.get("SA").min);
+        assertEquals(20.0, byState.get("SA").max);
+        assertEquals(15.0, byState.get("SA").average());
+
+        StationAggregates.Result all = aggregates.query("air_temp", StationAggregates.ALL, 0, 2_000).get(StationAggregates.ALL);
+        assertEquals(3, all.count);
+        assertEquals(5.0, all.min);
+    }
+
+    @Test
+    void testUpdatesAndRemovalsReplaceContributions() {
+        StationAggregates aggregates = new StationAggregates();
+        StationStore store = new StationStore(100);
+        store.addListener(aggregates);
+        store.put(record("A", "SA", 1_000, 10.0));
+        store.put(record("B", "SA", 1_000, 30.0));
+        store.put(record("B", "SA", 2_000, 25.0)); // Replaces B's 30.0, which was the maximum
+
+        StationAggregates.Result sa = aggregates.query("air_temp", "state", 0, 3_000).get("SA");
+        assertEquals(2, sa.count);
+        assertEquals(25.0, sa.max);
+        assertEquals(17.5, sa.average());
+
+        store.put(record("A", "VIC", 3_000, 12.0)); // Moves to another group
+        store.remove("B");
+
+        Map<String, StationAggregates.Result> byState = aggregates.query("air_temp", "state", 0, 4_000);
+        assertFalse(byState.containsKey("SA"));
+        assertEquals(12.0, byState.get("VIC").max);
+    }
+
+    @Test
+    void testWindowCoversEveryReadingInRange() {
+        StationAggregates aggregates = new StationAggregates();
+        StationStore store = new StationStore(100);
+        store.addListener(aggregates);
+        long now = 10_000_000;
+        for (int i = 0; i < 60; i++) {
+            store.put(record("A", "SA", now - 600_000 + i * 10_000L, i)); // One reading every ten seconds
+        }
+
+        // The last five minutes hold readings 30 to 59; only the latest one is current
+        StationAggregates.Result window = aggregates.query("air_temp", "state", 300_000, now).get("SA");
+        assertEquals(30, window.count);
+        assertEquals(30.0, window.min);
+        assertEquals(59.0, window.max);
+        assertEquals(1, aggregates.query("air_temp", "state", 0, now).get("SA").count);
+
+        assertThrows(IllegalArgumentException.class, () -> aggregates.query("name", "state", 0, now));
+        assertThrows(IllegalArgumentException.class, () -> aggregates.query("air_temp", "cloud", 0, now));
+    }
+
+    @Test
+    void testCurrentSumDoesNotDriftUnderUpdates() {
+        StationAggregates aggregates = new StationAggregates();
+        StationStore store = new StationStore(100);
+        store.addListener(aggregates);
+        store.put(record("A", "SA", 1_000, 12.3));
+        for (int i = 0; i < 20_000; i++) {
+            store.put(record("B", "SA", 1_000 + i, 1e9 + i * 0.37));
+        }
+        store.remove("B");
+
+        // Each update subtracts the old reading and adds the new one; uncompensated, A's share is off by ~5e-8
+        StationAggregates.Result sa = aggregates.query("air_temp", "state", 0, 0).get("SA");
+        assertEquals(1, sa.count);
+        assertEquals(12.3, sa.sum);
+
+        // An emptied group starts again from an exact zero
+        store.remove("A");
+        store.put(record("C", "SA", 30_000, 0.1));
+        assertEquals(0.1, aggregates.query("air_temp", "state", 0, 0).get("SA").sum);
+    }
+
+    @Test
+    void testTrimDropsIdleGroups() {
+        StationAggregates aggregates = new StationAggregates();
+        StationStore store = new StationStore(100);
+        store.addListener(aggregates);
+        store.put(record("A", "SA", 1_000, 10.0));
+        store.put(record("B", "VIC", 1_000, 10.0));
+        store.remove("A");
+
+        aggregates.trim(1_000 + StationAggregates.MAX_WINDOW_MILLIS + 1);
+
+        Set<String> states = aggregates.query("air_temp", "state", 0, 0).keySet();
+        assertEquals(Collections.singleton("VIC"), states);
+        assertEquals(2, aggregates.groups()); // all and VIC
+    }
+
+    private StationRecord record(String id, String state, long timestamp, double airTemp) {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", id);
+        json.addProperty("state", state);
+        json.addProperty("air_temp", airTemp);
+        json.addProperty("timestamp", timestamp);
+        return new StationRecord(json);
+    }
+}
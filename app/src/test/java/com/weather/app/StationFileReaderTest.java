@@ -0,0 +1,75 @@
+package com.weather.app;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StationFileReaderTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testRepeatedIdStartsNextStation() throws IOException {
+        Path file = write("name:First\r\nid: A1\r\nair_temp: 10\r\n\r\nid:B2\nair_temp:11\nair_temp:12\nnot a field\nid:C3\nwind:S:SW");
+        List<Map<String, String>> stations = readAll(file);
+
+        assertEquals(3, stations.size());
+        assertEquals(Arrays.asList("name", "id", "air_temp"), new ArrayList<>(stations.get(0).keySet()));
+        assertEquals("First", stations.get(0).get("name"));
+        assertEquals("A1", stations.get(0).get("id"));
+        assertEquals("12", stations.get(1).get("air_temp")); // Last value of a key wins within a station
+        assertEquals("S:SW", stations.get(2).get("wind")); // A value keeps its colons, and the last line needs no newline
+    }
+
+    @Test
+    void testLinesAcrossBufferBoundaries() throws IOException {
+        StringBuilder content = new StringBuilder();
+        String name = "Ngayirdapira éè " + "x".repeat(100_000); // Longer than the read buffer
+        int stations = 5_000;
+        for (int i = 0; i < stations; i++) {
+            content.append("id:S").append(i).append('\n')
+                    .append("name:").append(i == 2_500 ? name : "Station " + i).append('\n')
+                    .append("air_temp:").append(i % 40).append('\n');
+        }
+        List<Map<String, String>> read = readAll(write(content.toString()));
+
+        assertEquals(stations, read.size());
+        for (int i = 0; i < stations; i++) {
+            assertEquals("S" + i, read.get(i).get("id"));
+            assertEquals(String.valueOf(i % 40), read.get(i).get("air_temp"));
+        }
+        assertEquals(name, read.get(2_500).get("name"));
+    }
+
+    @Test
+    void testFileWithoutFieldsHasNoStations() throws IOException {
+        try (StationFileReader reader = new StationFileReader(write("invalid data\n\n"))) {
+            assertNull(reader.next());
+            assertNull(reader.next());
+        }
+        assertTrue(ContentServer.readDataFromFile(write("").toString()).isEmpty());
+    }
+
+    private Path write(String content) throws IOException {
+        Path file = Files.createTempFile(dir, "stations", ".txt");
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static List<Map<String, String>> readAll(Path file) throws IOException {
+        List<Map<String, String>> stations = new ArrayList<>();
+        try (StationFileReader reader = new StationFileReader(file)) {
+            for (Map<String, String> station = reader.next(); station != null; station = reader.next()) {
+                stations.add(station);
+            }
+        }
+        return stations;
+    }
+}
@@ -0,0 +1,122 @@
+package com.weather.app;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StationFileWatcherTest {
+
+    @TempDir
+    Path dir;
+
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    private final List<String> uploads = new CopyOnWriteArrayList<>();
+    private StationFileWatcher watcher;
+
+    @AfterEach
+    void stop() throws Exception {
+        if (watcher != null) {
+            watcher.close();
+        }
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void testOnlyChangedContentIsUploaded() throws Exception {
+        Path file = dir.resolve("station.txt");
+        Files.write(file, Arrays.asList("id:W01", "air_temp:10"));
+        start(Collections.singletonList(dir.toString()));
+        waitFor(() -> uploads.size() == 1);
+        assertEquals("W01=10", uploads.get(0));
+
+        // Rewritten with the same reading in another order: read again, but not uploaded
+        Files.write(file, Arrays.asList("air_temp: 10", "id:W01"));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 5_000));
+        waitFor(() -> watcher.unchanged() == 1);
+
+        Files.write(file, Arrays.asList("id:W01", "air_temp:11"));
+        waitFor(() -> uploads.size() == 2);
+        assertEquals("W01=11", uploads.get(1));
+
+        Files.write(dir.resolve("added.txt"), Arrays.asList("id:W02", "air_temp:5"));
+        waitFor(() -> uploads.size() == 3);
+        assertEquals("W02=5", uploads.get(2));
+        assertEquals(3, watcher.uploaded());
+    }
+
+    @Test
+    void testOnlyChangedStationsOfAFileAreUploaded() throws Exception {
+        Path file = dir.resolve("stations.txt");
+        Files.write(file, Arrays.asList("id:W01", "air_temp:10", "id:W02", "air_temp:20", "id:W03", "air_temp:30"));
+        start(Collections.singletonList(dir.toString()));
+        waitFor(() -> uploads.size() == 3);
+
+        Files.write(file, Arrays.asList("id:W01", "air_temp:10", "id:W02", "air_temp:21", "id:W03", "air_temp:30"));
+        waitFor(() -> watcher.unchanged() == 2);
+        assertEquals(Arrays.asList("W01=10", "W02=20", "W03=30", "W02=21"), uploads);
+    }
+
+    @Test
+    void testNamedFileIgnoresItsNeighbours() throws Exception {
+        Path file = dir.resolve("station.txt");
+        Files.write(file, Arrays.asList("id:W01", "air_temp:10"));
+        start(Collections.singletonList(file.toString()));
+        waitFor(() -> uploads.size() == 1);
+
+        Files.write(dir.resolve("other.txt"), Arrays.asList("id:W02", "air_temp:5"));
+        Files.write(file, Arrays.asList("id:W01", "air_temp:12"));
+        waitFor(() -> uploads.size() == 2);
+        Thread.sleep(300);
+        assertEquals(Arrays.asList("W01=10", "W01=12"), uploads);
+    }
+
+    @Test
+    void testStationsOfADeletedFileAreRemoved() throws Exception {
+        Path file = dir.resolve("stations.txt");
+        Files.write(file, Arrays.asList("id:W01", "air_temp:10", "id:W02", "air_temp:20"));
+        Files.write(dir.resolve("other.txt"), Arrays.asList("id:W02", "air_temp:20"));
+        start(Collections.singletonList(dir.toString()));
+        waitFor(() -> uploads.size() == 3);
+
+        Files.delete(file);
+        waitFor(() -> watcher.removed() == 1);
+        Thread.sleep(300);
+        assertEquals("W01=removed", uploads.get(3)); // W02 is still in other.txt
+        assertEquals(4, uploads.size());
+    }
+
+    @Test
+    void testStationDroppedFromAFileIsRemoved() throws Exception {
+        Path file = dir.resolve("stations.txt");
+        Files.write(file, Arrays.asList("id:W01", "air_temp:10", "id:W02", "air_temp:20"));
+        start(Collections.singletonList(dir.toString()));
+        waitFor(() -> uploads.size() == 2);
+
+        Files.write(file, Arrays.asList("id:W02", "air_temp:20"));
+        waitFor(() -> uploads.size() == 3);
+        assertEquals("W01=removed", uploads.get(2));
+        assertEquals(1, watcher.unchanged());
+    }
+
+    private void start(List<String> paths) throws Exception {
+        watcher = new StationFileWatcher(paths, scheduler,
+                (file, id, data) -> uploads.add(id + "=" + (data == null ? "removed" : data.get("air_temp"))));
+        Thread thread = new Thread(watcher::run);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+}
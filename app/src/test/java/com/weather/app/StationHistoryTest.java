@@ -0,0 +1,120 @@
+package com.weather.app;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StationHistoryTest {
+
+    @Test
+    void testRangeReturnsExactValues() {
+        StationHistory history = new StationHistory(3_600_000, 10_000);
+        StationStore store = new StationStore(100);
+        store.addListener(history);
+        for (int i = 0; i < 300; i++) {
+            store.put(record("A", 1_000_000 + i * 30_000L, 10 + i * 0.1, i % 7 == 0 ? null : 1013.2));
+        }
+
+        StationHistory.Samples samples = history.range("A", 1_000_000 + 30_000L * 10, 1_000_000 + 30_000L * 200);
+
+        assertEquals(191, samples.size());
+        assertEquals(1_300_000L, samples.timestamps.get(0));
+        int airTemp = samples.fields.indexOf("air_temp");
+        int press = samples.fields.indexOf("press");
+        for (int n = 0; n < samples.size(); n++) {
+            int i = n + 10;
+            assertEquals(10 + i * 0.1, samples.values.get(n)[airTemp]);
+            if (i % 7 == 0) {
+                assertTrue(Double.isNaN(samples.values.get(n)[press]));
+            } else {
+                assertEquals(1013.2, samples.values.get(n)[press]);
+            }
+        }
+        assertTrue(history.range("B", 0, Long.MAX_VALUE).size() == 0);
+    }
+
+    @Test
+    void testSamplesAreDeltaEncoded() {
+        StationHistory history = new StationHistory(3_600_000, 10_000);
+        StationStore store = new StationStore(100);
+        store.addListener(history);
+        for (int i = 0; i < 1000; i++) {
+            store.put(record("A", 1_000_000 + i * 30_000L, 13.3 + (i % 5) * 0.1, 1013.2));
+        }
+
+        // Raw storage would take 8 bytes per timestamp and per value
+        assertTrue(history.encodedBytes() < 1000 * (8 + 2 * 8) / 3, "encoded " + history.encodedBytes() + " bytes");
+    }
+
+    @Test
+    void testTrimAndCapacity() {
+        StationHistory history = new StationHistory(60_000, 200);
+        StationStore store = new StationStore(100);
+        store.addListener(history);
+        for (int i = 0; i < 1000; i++) {
+            store.put(record("A", i * 1_000L, 1.0, null));
+        }
+        store.put(record("A", 500L, 2.0, null)); // Older than the last sample, ignored
+
+        StationHistory.Samples all = history.range("A", 0, Long.MAX_VALUE);
+        assertTrue(all.size() >= 200 && all.size() < 200 + StationHistory.BLOCK_SAMPLES);
+        assertEquals(999_000L, (long) all.timestamps.get(all.size() - 1));
+
+        history.trim(999_000 + 60_000 + 1);
+        assertFalse(history.contains("A"));
+    }
+
+    @Test
+    void testReadingsInTheSameMillisecondAreKept() {
+        StationHistory history = new StationHistory(60_000, 200);
+        StationStore store = new StationStore(100);
+        store.addListener(history);
+        StationRecord first = record("A", 5_000L, 1.0, null, 7);
+        store.put(first);
+        store.put(record("A", 5_000L, 2.0, null, 8));
+        history.stationPut(first, null); // Replayed from the log: already recorded
+
+        StationHistory.Samples samples = history.range("A", 0, Long.MAX_VALUE);
+        assertEquals(Arrays.asList(5_000L, 5_000L), samples.timestamps);
+        assertEquals(2.0, samples.values.get(1)[samples.fields.indexOf("air_temp")]);
+    }
+
+    @Test
+    void testLeastRecentlyHeardStationsAreDroppedPastTheCap() {
+        StationHistory history = new StationHistory(3_600_000, 200, 10);
+        StationStore store = new StationStore(100);
+        store.addListener(history);
+        for (int i = 0; i < 10; i++) {
+            store.put(record("S" + i, 1_000L + i, 1.0, null));
+        }
+        store.put(record("S0", 2_000L, 1.0, null)); // Heard from again
+        store.put(record("S10", 3_000L, 1.0, null));
+
+        assertEquals(9, history.stations()); // Down to nine tenths of the cap
+        assertTrue(history.contains("S0"));
+        assertTrue(history.contains("S10"));
+        assertFalse(history.contains("S1"));
+        assertFalse(history.contains("S2"));
+    }
+
+    private StationRecord record(String id, long timestamp, double airTemp, Double press, long lamport) {
+        StationRecord record = record(id, timestamp, airTemp, press);
+        JsonObject json = record.json();
+        json.addProperty("lamport", lamport);
+        return new StationRecord(json);
+    }
+
+    private StationRecord record(String id, long timestamp, double airTemp, Double press) {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", id);
+        json.addProperty("air_temp", airTemp);
+        if (press != null) {
+            json.addProperty("press", press);
+        }
+        json.addProperty("timestamp", timestamp);
+        return new StationRecord(json);
+    }
+}
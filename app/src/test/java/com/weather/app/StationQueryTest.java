@@ -0,0 +1,67 @@
+package com.weather.app;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StationQueryTest {
+
+    @Test
+    void testFiltersUseIndexesAndStayCurrent() {
+        StationStore store = new StationStore(100);
+        StationIndex index = new StationIndex();
+        store.addListener(index);
+        store.put(station("ADL", "SA", "CST", -34.9, 138.6));
+        store.put(station("MEL", "VIC", "EST", -37.8, 144.9));
+        store.put(station("PTA", "SA", "CST", -33.2, 137.7));
+
+        assertEquals(Arrays.asList("ADL"), ids(query("id", "ADL"), store, index));
+        assertEquals(new HashSet<>(Arrays.asList("ADL", "PTA")), new HashSet<>(ids(query("state", "sa"), store, index)));
+        assertEquals(Arrays.asList("MEL"), ids(query("time_zone", "EST"), store, index));
+
+        Map<String, String> box = new HashMap<>();
+        box.put("minLat", "-35");
+        box.put("maxLat", "-34");
+        box.put("minLon", "138");
+        box.put("maxLon", "139");
+        assertEquals(Arrays.asList("ADL"), ids(box, store, index));
+
+        // Moving a station to another state updates the index
+        store.put(station("PTA", "NSW", "EST", -33.2, 137.7));
+        assertEquals(Arrays.asList("ADL"), ids(query("state", "SA"), store, index));
+        store.remove("ADL");
+        assertTrue(ids(query("state", "SA"), store, index).isEmpty());
+        assertTrue(index.withState("SA").isEmpty());
+    }
+
+    @Test
+    void testInvalidBoundIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new StationQuery(query("minLat", "north")));
+    }
+
+    private static List<String> ids(Map<String, String> parameters, StationStore store, StationIndex index) {
+        List<String> ids = new ArrayList<>();
+        for (StationRecord record : new StationQuery(parameters).run(store, index)) {
+            ids.add(record.getId());
+        }
+        return ids;
+    }
+
+    private static Map<String, String> query(String name, String value) {
+        return Collections.singletonMap(name, value);
+    }
+
+    private static StationRecord station(String id, String state, String timeZone, double lat, double lon) {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", id);
+        json.addProperty("state", state);
+        json.addProperty("time_zone", timeZone);
+        json.addProperty("lat", String.valueOf(lat));
+        json.addProperty("lon", String.valueOf(lon));
+        json.addProperty("timestamp", 1);
+        return new StationRecord(json);
+    }
+}
@@ -0,0 +1,143 @@
+package com.weather.app;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StationStoreTest {
+
+    @Test
+    void testUpdatesKeepInsertionOrderAndEvictOldest() {
+        StationStore store = new StationStore(3);
+        store.put(record("A", 1));
+        store.put(record("B", 1));
+        store.put(record("C", 1));
+        store.put(record("A", 2)); // Update does not move A to the back
+        store.put(record("D", 1));
+
+        List<String> ids = new ArrayList<>();
+        for (StationRecord record : store.snapshot()) {
+            ids.add(record.getId());
+        }
+        assertEquals(Arrays.asList("B", "C", "D"), ids);
+    }
+
+    @Test
+    void testRemoveIfNotifiesListeners() {
+        StationStore store = new StationStore(10);
+        List<String> removed = new ArrayList<>();
+        store.addListener(new StationStore.Listener() {
+            @Override
+            public void stationRemoved(StationRecord record) {
+                removed.add(record.getId());
+            }
+        });
+        store.put(record("OLD", 1));
+        store.put(record("NEW", 100));
+        long version = store.version();
+
+        store.removeIf(record -> record.getTimestamp() < 50);
+
+        assertEquals(Collections.singletonList("OLD"), removed);
+        assertNull(store.get("OLD"));
+        assertNotNull(store.get("NEW"));
+        assertTrue(store.version() > version);
+    }
+
+    @Test
+    void testConcurrentWritersAndReaders() throws Exception {
+        StationStore store = new StationStore(50);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            results.add(pool.submit(() -> {
+                for (int i = 0; i < 2_000; i++) {
+                    store.put(record("S" + ((thread * 31 + i) % 120), i));
+                    assertNotNull(store.snapshot()); // Iterating while others write never throws
+                }
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get(30, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertEquals(50, store.size());
+        assertEquals(50, store.snapshot().size());
+    }
+
+    @Test
+    void testBatchMovesTheVersionOnceAndEvictsAfterIt() {
+        StationStore store = new StationStore(2);
+        List<Integer> sizes = new ArrayList<>();
+        store.addListener(new StationStore.Listener() {
+            @Override
+            public void changed(long version) {
+                sizes.add(store.size());
+            }
+        });
+
+        store.putAll(Arrays.asList(record("A", 1), record("B", 1), record("C", 1)));
+
+        assertEquals(Arrays.asList(3, 2), sizes); // The batch, then the eviction of A
+        assertEquals(2, store.version());
+        assertNull(store.get("A"));
+    }
+
+    @Test
+    void testPutIfNewerOrdersByClockThenServer() {
+        StationStore store = new StationStore(10);
+        assertTrue(store.putIfNewer(ordered("A", 5, "north", 1.0), StationRecord.LAMPORT_ORDER).applied);
+
+        StationStore.PutResult stale = store.putIfNewer(ordered("A", 4, "south", 2.0), StationRecord.LAMPORT_ORDER);
+        assertFalse(stale.applied);
+        assertEquals(1.0, stale.previous.data().number("air_temp"));
+
+        assertFalse(store.putIfNewer(ordered("A", 5, "north", 1.0), StationRecord.LAMPORT_ORDER).applied); // A retry
+        assertTrue(store.putIfNewer(ordered("A", 5, "south", 3.0), StationRecord.LAMPORT_ORDER).applied); // Tie: larger id
+        assertTrue(store.putIfNewer(ordered("A", 6, "north", 4.0), StationRecord.LAMPORT_ORDER).applied);
+        assertEquals(4.0, store.get("A").data().number("air_temp"));
+    }
+
+    @Test
+    void testConcurrentOrderedWritersKeepHighestClock() throws Exception {
+        StationStore store = new StationStore(10);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            results.add(pool.submit(() -> {
+                for (int clock = 1 + thread; clock <= 4_000; clock += 8) {
+                    store.putIfNewer(ordered("A", clock, "server-" + thread, clock), StationRecord.LAMPORT_ORDER);
+                }
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get(30, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertEquals(4_000, store.get("A").data().getOriginClock());
+    }
+
+    private static StationRecord ordered(String id, int originClock, String origin, double airTemp) {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", id);
+        json.addProperty("air_temp", airTemp);
+        json.addProperty("origin", origin);
+        json.addProperty("origin_clock", originClock);
+        return new StationRecord(json);
+    }
+
+    private static StationRecord record(String id, long timestamp) {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", id);
+        json.addProperty("timestamp", timestamp);
+        return new StationRecord(json);
+    }
+}
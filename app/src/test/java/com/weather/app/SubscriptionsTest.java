@@ -0,0 +1,119 @@
+package com.weather.app;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SubscriptionsTest {
+
+    @Test
+    void testSubscriberSeesOnlyLatestVersionPerStation() throws Exception {
+        StationStore store = new StationStore(100);
+        Subscriptions subscriptions = new Subscriptions(store, 10, 10);
+        store.addListener(subscriptions);
+        Subscriptions.Subscriber subscriber = subscriptions.subscribe(null);
+
+        store.put(record("A", 1.0));
+        store.put(record("B", 2.0));
+        store.put(record("A", 3.0));
+        store.remove("B");
+
+        Subscriptions.Batch batch = subscriber.take(0);
+        assertFalse(batch.reset);
+        assertEquals(2, batch.events.size());
+        assertEquals("A", batch.events.get(0).id);
+        assertEquals(3.0, batch.events.get(0).record.data().number("air_temp"));
+        assertNull(batch.events.get(1).record); // B was removed
+        assertTrue(subscriber.take(0).isEmpty());
+    }
+
+    @Test
+    void testSlowSubscriberIsReset() throws Exception {
+        StationStore store = new StationStore(100);
+        Subscriptions subscriptions = new Subscriptions(store, 10, 3);
+        store.addListener(subscriptions);
+        Subscriptions.Subscriber subscriber = subscriptions.subscribe(null);
+
+        for (int i = 0; i < 5; i++) {
+            store.put(record("S" + i, i));
+        }
+
+        Subscriptions.Batch batch = subscriber.take(0);
+        assertTrue(batch.reset);
+        assertEquals(Arrays.asList("S3", "S4"), Arrays.asList(batch.events.get(0).id, batch.events.get(1).id));
+        assertTrue(Subscriptions.toEventStream(batch).startsWith("event: reset\n"));
+    }
+
+    @Test
+    void testFilterAndLimits() throws Exception {
+        StationStore store = new StationStore(100);
+        Subscriptions subscriptions = new Subscriptions(store, 1, 10);
+        store.addListener(subscriptions);
+        Subscriptions.Subscriber subscriber = subscriptions.subscribe(Collections.singleton("B"));
+        assertNull(subscriptions.subscribe(null));
+
+        store.put(record("A", 1.0));
+        assertTrue(subscriber.take(10).isEmpty());
+        store.put(record("B", 2.0));
+        String events = Subscriptions.toEventStream(subscriber.take(10));
+        assertTrue(events.startsWith("event: station\ndata: {\"id\":\"B\""), events);
+
+        subscriber.close();
+        assertEquals(0, subscriptions.size());
+        assertNotNull(subscriptions.subscribe(null));
+    }
+
+    @Test
+    void testAwaitChangeWakesOnPut() throws Exception {
+        StationStore store = new StationStore(100);
+        Subscriptions subscriptions = new Subscriptions(store, 10, 10);
+        store.addListener(subscriptions);
+        long version = store.version();
+
+        Thread writer = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                return;
+            }
+            store.put(record("A", 1.0));
+        });
+        writer.start();
+        long start = System.currentTimeMillis();
+        assertNotEquals(version, subscriptions.awaitChange(version, 10_000));
+        assertTrue(System.currentTimeMillis() - start < 5_000);
+        writer.join();
+
+        assertEquals(store.version(), subscriptions.awaitChange(version - 1, 10_000)); // Already changed
+        assertEquals(store.version(), subscriptions.awaitChange(store.version(), 50)); // Times out
+    }
+
+    @Test
+    void testParkedWaitCompletesOnPutOrTimeout() throws Exception {
+        StationStore store = new StationStore(100);
+        Subscriptions subscriptions = new Subscriptions(store, 10, 10);
+        store.addListener(subscriptions);
+        long version = store.version();
+
+        CompletableFuture<Long> change = subscriptions.onChange(version, 10_000);
+        assertFalse(change.isDone());
+        assertEquals(1, subscriptions.parked());
+        store.put(record("A", 1.0));
+        assertEquals(store.version(), change.get(1, TimeUnit.SECONDS));
+        assertEquals(0, subscriptions.parked());
+
+        assertEquals(store.version(), subscriptions.onChange(version, 10_000).getNow(null)); // Already changed
+        assertEquals(store.version(), subscriptions.onChange(store.version(), 50).get(5, TimeUnit.SECONDS)); // Times out
+    }
+
+    private StationRecord record(String id, double airTemp) {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", id);
+        json.addProperty("air_temp", airTemp);
+        return new StationRecord(json);
+    }
+}
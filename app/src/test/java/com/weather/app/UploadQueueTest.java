@@ -0,0 +1,146 @@
+package com.weather.app;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UploadQueueTest {
+
+    @Test
+    void testWaitingReadingsAreCoalescedPerStation() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<List<String>> rounds = new CopyOnWriteArrayList<>();
+        UploadQueue.Sender sender = uploads -> {
+            List<String> round = new ArrayList<>();
+            for (UploadQueue.Upload upload : uploads) {
+                round.add(upload.stationId + "=" + upload.data.get("air_temp"));
+            }
+            rounds.add(round);
+            await(release);
+            return statuses(uploads.size(), 200);
+        };
+        try (UploadQueue queue = new UploadQueue(10, 10, 1, 1, sender)) {
+            queue.offer(upload("A", "1"));
+            waitFor(() -> rounds.size() == 1); // A=1 is in flight
+            queue.offer(upload("B", "1"));
+            queue.offer(upload("A", "2"));
+            queue.offer(upload("B", "2"));
+            release.countDown();
+
+            assertTrue(queue.awaitIdle(5_000));
+            assertEquals(Arrays.asList(Collections.singletonList("A=1"), Arrays.asList("B=2", "A=2")), rounds);
+            assertEquals(1, queue.coalesced());
+            assertEquals(3, queue.sent());
+        }
+    }
+
+    @Test
+    void testFullQueueBlocksProducer() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        UploadQueue.Sender sender = uploads -> {
+            await(release);
+            return statuses(uploads.size(), 200);
+        };
+        try (UploadQueue queue = new UploadQueue(2, 1, 1, 1, sender)) {
+            queue.offer(upload("A", "1"));
+            queue.offer(upload("B", "1"));
+
+            Thread producer = new Thread(() -> {
+                try {
+                    queue.offer(upload("C", "1"));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            producer.start();
+            producer.join(300);
+            assertTrue(producer.isAlive()); // Two stations waiting or in flight fill the queue
+            queue.offer(upload("B", "2")); // Replacing a waiting reading needs no room
+
+            release.countDown();
+            producer.join(5_000);
+            assertFalse(producer.isAlive());
+            assertTrue(queue.awaitIdle(5_000));
+            assertEquals(3, queue.sent());
+        }
+    }
+
+    @Test
+    void testFailedRoundsAreRetriedWithTheirClock() throws Exception {
+        List<Long> clocks = new CopyOnWriteArrayList<>();
+        long[] nextClock = {100};
+        int[] calls = {0};
+        UploadQueue.Sender sender = uploads -> {
+            for (UploadQueue.Upload upload : uploads) {
+                if (upload.clock < 0) {
+                    upload.clock = nextClock[0]++;
+                }
+                clocks.add(upload.clock);
+            }
+            if (++calls[0] <= 2) {
+                throw new IOException("connection refused");
+            }
+            return Arrays.asList(200, 409);
+        };
+        try (UploadQueue queue = new UploadQueue(10, 10, 5, 20, sender)) {
+            synchronized (queue) { // Both go out in the first round
+                queue.offer(upload("A", "1"));
+                queue.offer(upload("B", "1"));
+            }
+            waitFor(() -> calls[0] >= 1);
+
+            assertTrue(queue.awaitIdle(5_000));
+            assertEquals(3, calls[0]);
+            assertEquals(Arrays.asList(100L, 101L, 100L, 101L, 100L, 101L), clocks);
+            assertEquals(4, queue.retried());
+            assertEquals(1, queue.sent());
+            assertEquals(1, queue.rejected()); // 409: a later reading is already stored, so it is not retried
+        }
+    }
+
+    @Test
+    void testBackoffIsJitteredAndCapped() {
+        try (UploadQueue queue = new UploadQueue(1, 1, 100, 1_000, uploads -> statuses(uploads.size(), 200))) {
+            Set<Long> delays = new HashSet<>();
+            for (int i = 0; i < 200; i++) {
+                long first = queue.backoffMillis(1);
+                assertTrue(first >= 0 && first <= 100);
+                long late = queue.backoffMillis(20);
+                assertTrue(late >= 0 && late <= 1_000);
+                delays.add(late);
+            }
+            assertTrue(delays.size() > 10);
+        }
+    }
+
+    private static UploadQueue.Upload upload(String id, String airTemp) {
+        Map<String, String> data = new HashMap<>();
+        data.put("id", id);
+        data.put("air_temp", airTemp);
+        return new UploadQueue.Upload(id, data);
+    }
+
+    private static List<Integer> statuses(int count, int status) {
+        return new ArrayList<>(Collections.nCopies(count, status));
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
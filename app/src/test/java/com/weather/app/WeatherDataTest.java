@@ -2,7 +2,11 @@ package com.weather.app;
 
 import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.Test;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class WeatherDataTest {
@@ -28,4 +32,55 @@ public class WeatherDataTest {
         weatherData.updateLastUpdated();
         assertTrue(weatherData.getLastUpdated() > initialTime);
     }
+
+    @Test
+    public void testRoundTripPreservesValues() {
+        String json = "{\"id\":\"IDS60901\",\"lat\":-34.9,\"local_date_time_full\":\"20230715160000\","
+                + "\"air_temp\":\"13.3\",\"rel_hum\":60,\"press\":1.0E5,\"dewpt\":\" 5.7\",\"name\":\"Adelaide\","
+                + "\"state\":\"SA\",\"wind_dir\":5,\"extra\":{\"a\":[1,2]},\"origin\":\"north\",\"origin_clock\":7,\"lamport\":9,\"timestamp\":1700000000000}";
+        JsonObject original = JsonParser.parseString(json).getAsJsonObject();
+
+        WeatherData data = WeatherData.fromJson(original);
+
+        assertEquals(original, data.toJson());
+        assertEquals("13.3", data.text("air_temp"));
+        assertEquals(-34.9, data.number("lat"));
+        assertEquals(60.0, data.number("rel_hum"));
+        assertEquals(5.7, data.number("dewpt"));
+        assertEquals("north", data.getOrigin());
+        assertEquals(7, data.getOriginClock());
+        assertEquals(9, data.getLamportTime());
+        assertEquals(1700000000000L, data.getLastUpdated());
+    }
+
+    @Test
+    public void testFeedOutputMatchesTreeSerialization() {
+        JsonObject original = JsonParser.parseString(
+                "{\"id\":\"A\",\"lon\":138.6,\"cloud\":\"Partly cloudy\",\"note\":\"x < y\",\"timestamp\":5}").getAsJsonObject();
+        StationRecord record = new StationRecord(original);
+
+        String expected = new GsonBuilder().setPrettyPrinting().create().toJson(List.of(original));
+        assertEquals(expected, FeedCache.toJson(List.of(record)));
+    }
+
+    @Test
+    public void testSymbolsAreSharedAndRecordIsSmaller() {
+        JsonObject first = JsonParser.parseString("{\"id\":\"A\",\"state\":\"SA\",\"air_temp\":13.3}").getAsJsonObject();
+        JsonObject second = JsonParser.parseString("{\"id\":\"B\",\"state\":\"SA\",\"air_temp\":9.1}").getAsJsonObject();
+
+        WeatherData a = WeatherData.fromJson(first);
+        WeatherData b = WeatherData.fromJson(second);
+
+        assertSame(a.text("state"), b.text("state"));
+        assertTrue(a.estimatedBytes() < 400);
+    }
+
+    @Test
+    public void testOriginsAreNotInterned() {
+        JsonObject first = JsonParser.parseString("{\"id\":\"A\",\"origin\":\"/127.0.0.1:50001\"}").getAsJsonObject();
+        JsonObject second = JsonParser.parseString("{\"id\":\"B\",\"origin\":\"/127.0.0.1:50001\"}").getAsJsonObject();
+
+        // Per-connection origins would otherwise fill the shared symbol table for good
+        assertNotSame(WeatherData.fromJson(first).getOrigin(), WeatherData.fromJson(second).getOrigin());
+    }
 }
@@ -0,0 +1,108 @@
+package com.weather.app;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteAheadLogTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testConcurrentAppendsAreAllReplayed() throws Exception {
+        Path logPath = directory.resolve("weatherData.wal");
+        ExecutorService writers = Executors.newFixedThreadPool(16);
+        try (WriteAheadLog log = new WriteAheadLog(logPath)) {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String id = "S" + i;
+                results.add(writers.submit(() -> log.append(WriteAheadLog.putRecord(station(id))).get()));
+            }
+            for (Future<?> result : results) {
+                result.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            writers.shutdown();
+        }
+
+        Set<String> replayed = new HashSet<>();
+        WriteAheadLog.replay(logPath, record -> replayed.add(record.getAsJsonObject("data").get("id").getAsString()));
+        assertEquals(200, replayed.size());
+    }
+
+    @Test
+    void testRotateRetiresOlderSegments() throws Exception {
+        Path logPath = directory.resolve("weatherData.wal");
+        try (WriteAheadLog log = new WriteAheadLog(logPath)) {
+            log.append(WriteAheadLog.putRecord(station("OLD"))).get();
+            long firstNewSegment = log.rotate();
+            assertEquals(0, log.recordsSinceRotate());
+            log.append(WriteAheadLog.putRecord(station("NEW"))).get();
+            log.deleteSegmentsBefore(firstNewSegment);
+        }
+
+        List<String> replayed = new ArrayList<>();
+        WriteAheadLog.replay(logPath, record -> replayed.add(record.getAsJsonObject("data").get("id").getAsString()));
+        assertEquals(Collections.singletonList("NEW"), replayed);
+    }
+
+    @Test
+    void testHeartbeatsCarriedOverARotationRenewLeasesOnReplay() throws Exception {
+        Path logPath = directory.resolve("weatherData.wal");
+        try (WriteAheadLog log = new WriteAheadLog(logPath)) {
+            JsonObject station = station("A");
+            station.addProperty("origin", "north");
+            station.addProperty("timestamp", 1_000);
+            log.append(WriteAheadLog.putRecord(station)).get();
+            long firstNewSegment = log.rotate();
+            log.carryOver(WriteAheadLog.heartbeatRecord("north", 20_000)).get();
+            assertEquals(0, log.recordsSinceRotate()); // Restating a lease does not call for another snapshot
+            log.deleteSegmentsBefore(firstNewSegment);
+        }
+
+        // As after a restart: the station comes from the snapshot, the renewal from the log
+        StationStore store = new StationStore(100);
+        ExpiryQueue expiry = new ExpiryQueue(30_000);
+        store.addListener(expiry);
+        JsonObject snapshotted = station("A");
+        snapshotted.addProperty("origin", "north");
+        snapshotted.addProperty("timestamp", 1_000);
+        store.put(new StationRecord(snapshotted));
+        WriteAheadLog.replay(logPath, record -> {
+            assertEquals("heartbeat", record.get("op").getAsString());
+            expiry.heartbeat(record.get("origin").getAsString(), record.get("time").getAsLong());
+        });
+
+        assertTrue(expiry.expire(store, 40_000).isEmpty());
+        assertEquals(20_000L, expiry.lastSeen().get("north"));
+    }
+
+    @Test
+    void testTornLastRecordIsSkipped() throws Exception {
+        Path logPath = directory.resolve("weatherData.wal");
+        try (WriteAheadLog log = new WriteAheadLog(logPath)) {
+            log.append(WriteAheadLog.putRecord(station("A"))).get();
+            log.append(WriteAheadLog.removeRecord("A")).get();
+        }
+        Files.write(directory.resolve("weatherData.wal.1"), "{\"op\":\"put\",\"da".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        List<String> ops = new ArrayList<>();
+        WriteAheadLog.replay(logPath, record -> ops.add(record.get("op").getAsString()));
+        assertEquals(Arrays.asList("put", "remove"), ops);
+    }
+
+    private static JsonObject station(String id) {
+        JsonObject station = new JsonObject();
+        station.addProperty("id", id);
+        return station;
+    }
+}